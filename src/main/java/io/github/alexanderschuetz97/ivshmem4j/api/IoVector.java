@@ -0,0 +1,78 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+import java.util.Objects;
+
+/**
+ * Transfer object that describes one part of a scatter/gather transfer between a byte array and a shared memory.
+ */
+public class IoVector {
+
+    private final byte[] buffer;
+    private final int bufferOffset;
+    private final long memoryOffset;
+    private final int length;
+
+    public IoVector(byte[] buffer, long memoryOffset) {
+        this(buffer, 0, memoryOffset, buffer.length);
+    }
+
+    public IoVector(byte[] buffer, int bufferOffset, long memoryOffset, int length) {
+        this.buffer = Objects.requireNonNull(buffer);
+        if (bufferOffset < 0 || length < 0 || bufferOffset + length > buffer.length || bufferOffset + length < 0) {
+            throw new IllegalArgumentException("bufferOffset " + bufferOffset + " length " + length + " array length " + buffer.length);
+        }
+
+        if (memoryOffset < 0) {
+            throw new IllegalArgumentException("memoryOffset");
+        }
+
+        this.bufferOffset = bufferOffset;
+        this.memoryOffset = memoryOffset;
+        this.length = length;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getBufferOffset() {
+        return bufferOffset;
+    }
+
+    public long getMemoryOffset() {
+        return memoryOffset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "IoVector{" +
+                "bufferOffset=" + bufferOffset +
+                ", memoryOffset=" + memoryOffset +
+                ", length=" + length +
+                '}';
+    }
+}
@@ -46,45 +46,61 @@ public class Ivshmem {
         return EXECUTOR;
     }
 
-    public static IvshmemMemory doorbell(String path, long grace, Executor executor, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
+    public static LinuxIvshmemMemory doorbell(String path, long grace, Executor executor, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
+        return doorbell(path, grace, new MappingOptions(), executor, handler);
+    }
+
+    public static LinuxIvshmemMemory doorbell(String path, long grace, MappingOptions options, Executor executor, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
         if (!NativeUtils.isLinux()) {
             throw new UnsupportedOperationException();
         }
-        return new LinuxDoorbellClient(path, grace, executor == null ? getDefaultExecutor() : executor, handler);
+        return new LinuxDoorbellClient(path, grace, options, executor == null ? getDefaultExecutor() : executor, handler);
+    }
+
+    public static LinuxIvshmemMemory doorbell(String path, long grace, MappingOptions options) throws IvshmemException {
+        return doorbell(path, grace, options, getDefaultExecutor(), StdErrHandler.INSTANCE);
     }
 
-    public static IvshmemMemory doorbell(String path) throws IvshmemException {
+    public static LinuxIvshmemMemory doorbell(String path) throws IvshmemException {
         return doorbell(path, 5000, getDefaultExecutor(), StdErrHandler.INSTANCE);
     }
 
-    public static IvshmemMemory doorbell(String path, long grace) throws IvshmemException {
+    public static LinuxIvshmemMemory doorbell(String path, long grace) throws IvshmemException {
         return doorbell(path, grace, getDefaultExecutor(), StdErrHandler.INSTANCE);
     }
 
-    public static IvshmemMemory doorbell(String path, long grace, Executor executor) throws IvshmemException {
+    public static LinuxIvshmemMemory doorbell(String path, long grace, Executor executor) throws IvshmemException {
         return doorbell(path, grace, executor, StdErrHandler.INSTANCE);
     }
 
-    public static IvshmemMemory doorbell(String path, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
+    public static LinuxIvshmemMemory doorbell(String path, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
         return doorbell(path, 5000, getDefaultExecutor(), handler);
     }
 
-    public static IvshmemMemory doorbell(String path, Executor executor, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
+    public static LinuxIvshmemMemory doorbell(String path, Executor executor, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
         return doorbell(path, 5000, executor, handler);
     }
 
-    public static IvshmemMemory plain(String path, long size, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
+    public static PlainIvshmemMemory plain(String path, long size, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
+        return plain(path, size, new MappingOptions(), getDefaultExecutor(), handler);
+    }
+
+    public static PlainIvshmemMemory plain(String path, long size, MappingOptions options, Executor executor, Thread.UncaughtExceptionHandler handler) throws IvshmemException {
         if (!NativeUtils.isLinux()) {
             throw new UnsupportedOperationException();
         }
-        return new LinuxPlain(path, size, handler);
+        return new LinuxPlain(path, size, options, executor == null ? getDefaultExecutor() : executor, handler);
+    }
+
+    public static PlainIvshmemMemory plain(String path, long size, MappingOptions options) throws IvshmemException {
+        return plain(path, size, options, getDefaultExecutor(), StdErrHandler.INSTANCE);
     }
 
-    public static IvshmemMemory plain(String path, long size) throws IvshmemException {
+    public static PlainIvshmemMemory plain(String path, long size) throws IvshmemException {
         return plain(path, size, StdErrHandler.INSTANCE);
     }
 
-    public static IvshmemMemory plain(String path) throws IvshmemException {
+    public static PlainIvshmemMemory plain(String path) throws IvshmemException {
         return plain(path, 0, StdErrHandler.INSTANCE);
     }
 
@@ -92,19 +108,19 @@ public class Ivshmem {
         return WindowsPCI.list();
     }
 
-    public static IvshmemMemory windowsPCI(WindowsIvshmemPCIDevice pciDevice, Executor executor, Thread.UncaughtExceptionHandler handler) {
+    public static PeerRegistryIvshmemMemory windowsPCI(WindowsIvshmemPCIDevice pciDevice, Executor executor, Thread.UncaughtExceptionHandler handler) {
         return new WindowsPCI(pciDevice, executor, handler);
     }
 
-    public static IvshmemMemory windowsPCI(WindowsIvshmemPCIDevice pciDevice, Executor executor) {
+    public static PeerRegistryIvshmemMemory windowsPCI(WindowsIvshmemPCIDevice pciDevice, Executor executor) {
         return new WindowsPCI(pciDevice, executor, StdErrHandler.INSTANCE);
     }
 
-    public static IvshmemMemory windowsPCI(WindowsIvshmemPCIDevice pciDevice, Thread.UncaughtExceptionHandler handler) {
+    public static PeerRegistryIvshmemMemory windowsPCI(WindowsIvshmemPCIDevice pciDevice, Thread.UncaughtExceptionHandler handler) {
         return new WindowsPCI(pciDevice, getDefaultExecutor(), handler);
     }
 
-    public static IvshmemMemory windowsPCI(WindowsIvshmemPCIDevice pciDevice) {
+    public static PeerRegistryIvshmemMemory windowsPCI(WindowsIvshmemPCIDevice pciDevice) {
         return new WindowsPCI(pciDevice, getDefaultExecutor(), StdErrHandler.INSTANCE);
     }
 
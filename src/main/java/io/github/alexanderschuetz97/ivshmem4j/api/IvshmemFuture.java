@@ -0,0 +1,189 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Future that is completed by Ivshmem4j and can notify listeners when it is done.
+ * Waiting threads block on a java.util.concurrent lock and never on a monitor, so waiting does not pin virtual threads.
+ */
+public class IvshmemFuture<T> implements Future<T> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition done = lock.newCondition();
+    private List<Runnable> listeners = new ArrayList<>();
+    private boolean completed;
+    private boolean cancelled;
+    private T value;
+    private Throwable failure;
+
+    /**
+     * Completes the future with the value. returns false if the future was already done.
+     */
+    public boolean complete(T value) {
+        return finish(value, null, false);
+    }
+
+    /**
+     * Completes the future with a failure that get will throw wrapped in an ExecutionException.
+     * returns false if the future was already done.
+     */
+    public boolean completeExceptionally(Throwable failure) {
+        return finish(null, Objects.requireNonNull(failure), false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, null, true);
+    }
+
+    private boolean finish(T value, Throwable failure, boolean cancel) {
+        List<Runnable> toRun;
+        lock.lock();
+        try {
+            if (completed) {
+                return false;
+            }
+
+            completed = true;
+            cancelled = cancel;
+            this.value = value;
+            this.failure = failure;
+            toRun = listeners;
+            listeners = null;
+            done.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs the listener on the executor once this future is done. If it is already done the listener is submitted immediately.
+     * If the executor rejects the listener then the rejection is passed to the handler.
+     */
+    public void addListener(final Runnable listener, final Executor executor, final Thread.UncaughtExceptionHandler handler) {
+        Objects.requireNonNull(listener);
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(handler);
+        Runnable submit = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(listener);
+                } catch (RejectedExecutionException exc) {
+                    handler.uncaughtException(Thread.currentThread(), exc);
+                }
+            }
+        };
+
+        lock.lock();
+        try {
+            if (!completed) {
+                listeners.add(submit);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        submit.run();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        lock.lock();
+        try {
+            return cancelled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        lock.lock();
+        try {
+            return completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        lock.lock();
+        try {
+            while (!completed) {
+                done.await();
+            }
+            return result();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!completed) {
+                if (nanos <= 0) {
+                    throw new TimeoutException();
+                }
+                nanos = done.awaitNanos(nanos);
+            }
+            return result();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private T result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+
+        return value;
+    }
+}
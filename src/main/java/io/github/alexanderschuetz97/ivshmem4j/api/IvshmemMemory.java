@@ -22,6 +22,8 @@ package io.github.alexanderschuetz97.ivshmem4j.api;
 import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
 
 import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Interface for Ivshmem Memory. It contains the actual native memory mapping and several ivshmem specific functions.
@@ -82,6 +84,34 @@ public interface IvshmemMemory extends AutoCloseable {
      */
     boolean isVectorValid(int vector);
 
+    /**
+     * returns a future that completes with the vector when the next interrupt on the vector arrives after this call.
+     * Interrupts that arrive while nobody waits are not remembered. The future fails if this shared memory is closed.
+     * This is only supported if supportsInterrupts returns true.
+     */
+    IvshmemFuture<Integer> nextInterrupt(int vector);
+
+    /**
+     * Blocks until the next interrupt on the vector arrives or the timeout elapses. returns false on timeout.
+     * Waiting does not pin virtual threads. This is only supported if supportsInterrupts returns true.
+     */
+    boolean awaitInterrupt(int vector, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * returns a publisher of the interrupts on the vector. Every subscription buffers at most bufferSize interrupts that were
+     * not yet requested, the subscription fails if the buffer overflows. The subscribers are called by the executor and never
+     * by the thread that receives interrupts. Subscriptions complete when this shared memory is closed. A subscriber that
+     * throws or whose executor rejects it is cancelled and the exception is passed to the handler of this shared memory.
+     * This is only supported if supportsInterrupts returns true.
+     */
+    IvshmemPublisher<Integer> interruptPublisher(int vector, Executor executor, int bufferSize);
+
+    /**
+     * returns a publisher of the events that are passed to PeerConnectionListeners with the same buffering as interruptPublisher.
+     * The publisher never emits an event if this shared memory does not know other peers.
+     */
+    IvshmemPublisher<PeerEvent> peerPublisher(Executor executor, int bufferSize);
+
     /**
      * Closes this shared memory device. Due to synchronization this call might take several seconds before returning.
      */
@@ -0,0 +1,33 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+/**
+ * Publisher of events of a shared memory. This has the same contract as java.util.concurrent.Flow.Publisher
+ * which is not available on Java 7 so it can be adapted to Flow or Reactive Streams with a thin wrapper.
+ */
+public interface IvshmemPublisher<T> {
+
+    /**
+     * Adds the subscriber. onSubscribe is always called first, events are only delivered once they were requested.
+     */
+    void subscribe(IvshmemSubscriber<? super T> subscriber);
+}
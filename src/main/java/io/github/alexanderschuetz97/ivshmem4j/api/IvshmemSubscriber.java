@@ -0,0 +1,50 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+/**
+ * Receiver of events from an IvshmemPublisher. This has the same contract as java.util.concurrent.Flow.Subscriber.
+ * All methods of a subscriber are called sequentially by the executor given to the publisher and never by the
+ * threads that receive interrupts or peer events.
+ */
+public interface IvshmemSubscriber<T> {
+
+    /**
+     * Called once before any other method.
+     */
+    void onSubscribe(IvshmemSubscription subscription);
+
+    /**
+     * Called for every requested event.
+     */
+    void onNext(T item);
+
+    /**
+     * Called once if the subscription failed, for example because the subscriber did not request events fast enough
+     * and the buffer of the subscription overflowed. No further methods are called.
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Called once after the last event when the shared memory was closed. No further methods are called.
+     */
+    void onComplete();
+}
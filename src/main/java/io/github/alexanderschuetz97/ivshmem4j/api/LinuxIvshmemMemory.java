@@ -0,0 +1,45 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+/**
+ * Shared memory that is mapped into this process by a linux host with MappingOptions.
+ * This is implemented by ivshmem-plain and ivshmem-doorbell.
+ */
+public interface LinuxIvshmemMemory extends IvshmemMemory {
+
+    /**
+     * returns the numa memory policy and the amount of resident pages per numa node of the memory mapping.
+     * This requires a kernel with numa support.
+     */
+    NumaPlacement getNumaPlacement();
+
+    /**
+     * Gives the operating system a hint about the future usage of the given range of the memory mapping.
+     * See MemoryAdvice for the effect of each hint.
+     */
+    void advise(long offset, long length, MemoryAdvice advice);
+
+    /**
+     * returns true if the memory mapping is read only. Any attempt to write to the NativeMemory will fail.
+     */
+    boolean isReadOnly();
+}
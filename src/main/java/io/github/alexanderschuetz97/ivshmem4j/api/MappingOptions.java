@@ -0,0 +1,264 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Options that control how the shared memory is mapped into this process on a linux host.
+ * The default options map the shared memory exactly like previous versions of Ivshmem4j did.
+ */
+public class MappingOptions {
+
+    private boolean preallocate;
+    private boolean populate;
+    private boolean preFault;
+    private int preFaultThreads;
+    private boolean lock;
+    private Executor[] numaExecutors;
+    private boolean numaInterleave;
+    private long windowOffset;
+    private long windowLength;
+    private boolean readOnly;
+    private long generationOffset = -1;
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    /**
+     * Writes zeros to every part of the file that is created or extended by ivshmem-plain instead of only writing the last byte.
+     * The file is then not sparse and a full tmpfs will cause an IvshmemException when opening instead of a SIGBUS on first access.
+     * Only the range by which the file grows is written. Writing zeros over the existing content would destroy data of other
+     * peers and the native binding has no fallocate, so holes in an existing sparse file of sufficient size are not filled and
+     * may still cause a SIGBUS on a full tmpfs.
+     * This has no effect on ivshmem-doorbell since the ivshmem-server creates the file.
+     * Can not be combined with numa bind or numa interleave.
+     */
+    public MappingOptions setPreallocate(boolean preallocate) {
+        if (preallocate) {
+            checkNoNuma();
+        }
+        this.preallocate = preallocate;
+        return this;
+    }
+
+    public boolean isPopulate() {
+        return populate;
+    }
+
+    /**
+     * Maps the shared memory with MAP_POPULATE. The kernel will fault in all pages before mmap returns.
+     * Can not be combined with numa bind or numa interleave.
+     */
+    public MappingOptions setPopulate(boolean populate) {
+        if (populate) {
+            checkNoNuma();
+        }
+        this.populate = populate;
+        return this;
+    }
+
+    public boolean isPreFault() {
+        return preFault;
+    }
+
+    /**
+     * Touches every page of the shared memory once after mapping it. The content of the shared memory is not modified.
+     * Unlike populate this is done by several threads for large shared memories.
+     */
+    public MappingOptions setPreFault(boolean preFault) {
+        this.preFault = preFault;
+        return this;
+    }
+
+    public int getPreFaultThreads() {
+        return preFaultThreads;
+    }
+
+    /**
+     * Maximum amount of threads used to pre fault the shared memory. 0 means the amount of available processors.
+     * Each thread will at least pre fault 64 MiB so small shared memories are always pre faulted by the calling thread.
+     */
+    public MappingOptions setPreFaultThreads(int preFaultThreads) {
+        if (preFaultThreads < 0) {
+            throw new IllegalArgumentException("preFaultThreads");
+        }
+        this.preFaultThreads = preFaultThreads;
+        return this;
+    }
+
+    public boolean isLock() {
+        return lock;
+    }
+
+    /**
+     * Maps the shared memory with MAP_LOCKED so its pages are not swapped out.
+     * Locking is best effort. The native binding has no mlock so pages that the kernel fails to fault in and lock are
+     * not reported, opening the shared memory does not fail because of it and the pages may still be swapped out.
+     * Combine this with populate or preFault to pay the page faults when opening.
+     */
+    public MappingOptions setLock(boolean lock) {
+        this.lock = lock;
+        return this;
+    }
+
+    public Executor[] getNumaExecutors() {
+        return numaExecutors == null ? null : numaExecutors.clone();
+    }
+
+    public boolean isNumaInterleave() {
+        return numaInterleave;
+    }
+
+    /**
+     * Binds the pages of the shared memory to the numa node of the given executor.
+     * Linux allocates a page on the numa node of the cpu that first touches it, so every page is touched once
+     * by threads of the executor after mapping. The threads of the executor must be pinned to the desired numa node.
+     * Pages that are already resident, for example because another peer or preallocate touched them first, are not moved.
+     * Use getNumaPlacement to verify the placement.
+     * Can not be combined with preallocate or populate since both touch the pages from the calling thread first.
+     */
+    public MappingOptions setNumaBind(Executor executor) {
+        checkNoFirstTouch();
+        this.numaExecutors = new Executor[]{Objects.requireNonNull(executor)};
+        this.numaInterleave = false;
+        return this;
+    }
+
+    /**
+     * Interleaves the pages of the shared memory page by page over the numa nodes of the given executors.
+     * Page n is touched first by the n-th executor modulo the amount of executors. The threads of each executor must be pinned
+     * to a numa node. The same restrictions as for setNumaBind apply.
+     */
+    public MappingOptions setNumaInterleave(Executor... executors) {
+        if (executors.length == 0) {
+            throw new IllegalArgumentException("executors");
+        }
+
+        checkNoFirstTouch();
+
+        for (Executor executor : executors) {
+            Objects.requireNonNull(executor);
+        }
+
+        this.numaExecutors = executors.clone();
+        this.numaInterleave = true;
+        return this;
+    }
+
+    private void checkNoNuma() {
+        if (numaExecutors != null) {
+            throw new IllegalArgumentException("preallocate and populate can not be combined with numa placement");
+        }
+    }
+
+    private void checkNoFirstTouch() {
+        if (preallocate || populate) {
+            throw new IllegalArgumentException("numa placement can not be combined with preallocate or populate");
+        }
+    }
+
+    /**
+     * Removes any numa bind or numa interleave option.
+     */
+    public MappingOptions clearNuma() {
+        this.numaExecutors = null;
+        this.numaInterleave = false;
+        return this;
+    }
+
+    public long getWindowOffset() {
+        return windowOffset;
+    }
+
+    public long getWindowLength() {
+        return windowLength;
+    }
+
+    /**
+     * Only maps length bytes starting at offset of the shared memory file instead of the entire file.
+     * The offset does not have to be page aligned. The file must be at least offset + length bytes big after it was
+     * created or extended to the requested size. A length of 0 maps the entire file.
+     * This has no effect on ivshmem-doorbell.
+     */
+    public MappingOptions setWindow(long offset, long length) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset");
+        }
+
+        if (length < 0) {
+            throw new IllegalArgumentException("length");
+        }
+
+        this.windowOffset = offset;
+        this.windowLength = length;
+        return this;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Maps the shared memory with PROT_READ only. The NativeMemory of the mapping is read only.
+     * ivshmem-plain opens the file with O_RDONLY so only read permission on the file is required.
+     * The file is never created or extended in this mode and preallocate has no effect.
+     */
+    public MappingOptions setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+        return this;
+    }
+
+    public long getGenerationOffset() {
+        return generationOffset;
+    }
+
+    /**
+     * Offset of an 8 byte aligned 64 bit counter inside the shared memory that is incremented by every call to grow.
+     * This allows remapIfGrown to detect growth without a syscall. -1 disables the counter.
+     */
+    public MappingOptions setGenerationOffset(long generationOffset) {
+        if (generationOffset < -1) {
+            throw new IllegalArgumentException("generationOffset");
+        }
+        this.generationOffset = generationOffset;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "MappingOptions{" +
+                "preallocate=" + preallocate +
+                ", populate=" + populate +
+                ", preFault=" + preFault +
+                ", preFaultThreads=" + preFaultThreads +
+                ", lock=" + lock +
+                ", numaExecutors=" + (numaExecutors == null ? 0 : numaExecutors.length) +
+                ", numaInterleave=" + numaInterleave +
+                ", windowOffset=" + windowOffset +
+                ", windowLength=" + windowLength +
+                ", readOnly=" + readOnly +
+                ", generationOffset=" + generationOffset +
+                '}';
+    }
+}
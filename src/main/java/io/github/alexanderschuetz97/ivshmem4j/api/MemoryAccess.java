@@ -0,0 +1,530 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bulk transfers between java arrays or buffers and a NativeMemory.
+ * Elements are packed into a per thread scratch buffer so a transfer needs one native copy per 64 KiB instead of one per element.
+ */
+public class MemoryAccess {
+
+    static final int SCRATCH_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SCRATCH_SIZE];
+        }
+    };
+
+    private MemoryAccess() {
+
+    }
+
+    /**
+     * returns the scratch buffer of the calling thread. Callers must not call other methods that use it while using it.
+     */
+    static byte[] scratch() {
+        return SCRATCH.get();
+    }
+
+    static void checkArray(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > arrayLength || offset + length < 0) {
+            throw new IllegalArgumentException("offset " + offset + " length " + length + " array length " + arrayLength);
+        }
+    }
+
+    static void checkMemory(NativeMemory memory, long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > memory.size() || offset + length < 0) {
+            throw new IllegalArgumentException("offset " + offset + " length " + length + " size " + memory.size());
+        }
+    }
+
+    public static void write(NativeMemory memory, long offset, short[] src) {
+        write(memory, offset, src, 0, src.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes length elements of src starting at srcOffset to the memory at offset in the given byte order.
+     */
+    public static void write(NativeMemory memory, long offset, short[] src, int srcOffset, int length, ByteOrder order) {
+        checkArray(src.length, srcOffset, length);
+        checkMemory(memory, offset, length * 2L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 2, length);
+            buffer.clear();
+            buffer.asShortBuffer().put(src, srcOffset, n);
+            memory.write(offset, scratch, 0, n * 2);
+            offset += n * 2L;
+            srcOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void read(NativeMemory memory, long offset, short[] dst) {
+        read(memory, offset, dst, 0, dst.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Reads length elements in the given byte order from the memory at offset into dst starting at dstOffset.
+     */
+    public static void read(NativeMemory memory, long offset, short[] dst, int dstOffset, int length, ByteOrder order) {
+        checkArray(dst.length, dstOffset, length);
+        checkMemory(memory, offset, length * 2L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 2, length);
+            memory.read(offset, scratch, 0, n * 2);
+            buffer.clear();
+            buffer.asShortBuffer().get(dst, dstOffset, n);
+            offset += n * 2L;
+            dstOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void write(NativeMemory memory, long offset, char[] src) {
+        write(memory, offset, src, 0, src.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes length elements of src starting at srcOffset to the memory at offset in the given byte order.
+     */
+    public static void write(NativeMemory memory, long offset, char[] src, int srcOffset, int length, ByteOrder order) {
+        checkArray(src.length, srcOffset, length);
+        checkMemory(memory, offset, length * 2L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 2, length);
+            buffer.clear();
+            buffer.asCharBuffer().put(src, srcOffset, n);
+            memory.write(offset, scratch, 0, n * 2);
+            offset += n * 2L;
+            srcOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void read(NativeMemory memory, long offset, char[] dst) {
+        read(memory, offset, dst, 0, dst.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Reads length elements in the given byte order from the memory at offset into dst starting at dstOffset.
+     */
+    public static void read(NativeMemory memory, long offset, char[] dst, int dstOffset, int length, ByteOrder order) {
+        checkArray(dst.length, dstOffset, length);
+        checkMemory(memory, offset, length * 2L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 2, length);
+            memory.read(offset, scratch, 0, n * 2);
+            buffer.clear();
+            buffer.asCharBuffer().get(dst, dstOffset, n);
+            offset += n * 2L;
+            dstOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void write(NativeMemory memory, long offset, int[] src) {
+        write(memory, offset, src, 0, src.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes length elements of src starting at srcOffset to the memory at offset in the given byte order.
+     */
+    public static void write(NativeMemory memory, long offset, int[] src, int srcOffset, int length, ByteOrder order) {
+        checkArray(src.length, srcOffset, length);
+        checkMemory(memory, offset, length * 4L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 4, length);
+            buffer.clear();
+            buffer.asIntBuffer().put(src, srcOffset, n);
+            memory.write(offset, scratch, 0, n * 4);
+            offset += n * 4L;
+            srcOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void read(NativeMemory memory, long offset, int[] dst) {
+        read(memory, offset, dst, 0, dst.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Reads length elements in the given byte order from the memory at offset into dst starting at dstOffset.
+     */
+    public static void read(NativeMemory memory, long offset, int[] dst, int dstOffset, int length, ByteOrder order) {
+        checkArray(dst.length, dstOffset, length);
+        checkMemory(memory, offset, length * 4L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 4, length);
+            memory.read(offset, scratch, 0, n * 4);
+            buffer.clear();
+            buffer.asIntBuffer().get(dst, dstOffset, n);
+            offset += n * 4L;
+            dstOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void write(NativeMemory memory, long offset, long[] src) {
+        write(memory, offset, src, 0, src.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes length elements of src starting at srcOffset to the memory at offset in the given byte order.
+     */
+    public static void write(NativeMemory memory, long offset, long[] src, int srcOffset, int length, ByteOrder order) {
+        checkArray(src.length, srcOffset, length);
+        checkMemory(memory, offset, length * 8L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 8, length);
+            buffer.clear();
+            buffer.asLongBuffer().put(src, srcOffset, n);
+            memory.write(offset, scratch, 0, n * 8);
+            offset += n * 8L;
+            srcOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void read(NativeMemory memory, long offset, long[] dst) {
+        read(memory, offset, dst, 0, dst.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Reads length elements in the given byte order from the memory at offset into dst starting at dstOffset.
+     */
+    public static void read(NativeMemory memory, long offset, long[] dst, int dstOffset, int length, ByteOrder order) {
+        checkArray(dst.length, dstOffset, length);
+        checkMemory(memory, offset, length * 8L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 8, length);
+            memory.read(offset, scratch, 0, n * 8);
+            buffer.clear();
+            buffer.asLongBuffer().get(dst, dstOffset, n);
+            offset += n * 8L;
+            dstOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void write(NativeMemory memory, long offset, float[] src) {
+        write(memory, offset, src, 0, src.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes length elements of src starting at srcOffset to the memory at offset in the given byte order.
+     */
+    public static void write(NativeMemory memory, long offset, float[] src, int srcOffset, int length, ByteOrder order) {
+        checkArray(src.length, srcOffset, length);
+        checkMemory(memory, offset, length * 4L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 4, length);
+            buffer.clear();
+            buffer.asFloatBuffer().put(src, srcOffset, n);
+            memory.write(offset, scratch, 0, n * 4);
+            offset += n * 4L;
+            srcOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void read(NativeMemory memory, long offset, float[] dst) {
+        read(memory, offset, dst, 0, dst.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Reads length elements in the given byte order from the memory at offset into dst starting at dstOffset.
+     */
+    public static void read(NativeMemory memory, long offset, float[] dst, int dstOffset, int length, ByteOrder order) {
+        checkArray(dst.length, dstOffset, length);
+        checkMemory(memory, offset, length * 4L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 4, length);
+            memory.read(offset, scratch, 0, n * 4);
+            buffer.clear();
+            buffer.asFloatBuffer().get(dst, dstOffset, n);
+            offset += n * 4L;
+            dstOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void write(NativeMemory memory, long offset, double[] src) {
+        write(memory, offset, src, 0, src.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes length elements of src starting at srcOffset to the memory at offset in the given byte order.
+     */
+    public static void write(NativeMemory memory, long offset, double[] src, int srcOffset, int length, ByteOrder order) {
+        checkArray(src.length, srcOffset, length);
+        checkMemory(memory, offset, length * 8L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 8, length);
+            buffer.clear();
+            buffer.asDoubleBuffer().put(src, srcOffset, n);
+            memory.write(offset, scratch, 0, n * 8);
+            offset += n * 8L;
+            srcOffset += n;
+            length -= n;
+        }
+    }
+
+    public static void read(NativeMemory memory, long offset, double[] dst) {
+        read(memory, offset, dst, 0, dst.length, ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Reads length elements in the given byte order from the memory at offset into dst starting at dstOffset.
+     */
+    public static void read(NativeMemory memory, long offset, double[] dst, int dstOffset, int length, ByteOrder order) {
+        checkArray(dst.length, dstOffset, length);
+        checkMemory(memory, offset, length * 8L);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(order);
+        while (length > 0) {
+            int n = Math.min(scratch.length / 8, length);
+            memory.read(offset, scratch, 0, n * 8);
+            buffer.clear();
+            buffer.asDoubleBuffer().get(dst, dstOffset, n);
+            offset += n * 8L;
+            dstOffset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of src to the memory at offset. The position of src is advanced to its limit.
+     */
+    public static void write(NativeMemory memory, long offset, ByteBuffer src) {
+        int length = src.remaining();
+        checkMemory(memory, offset, length);
+        if (src.hasArray()) {
+            memory.write(offset, src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.limit());
+            return;
+        }
+
+        byte[] scratch = scratch();
+        while (src.hasRemaining()) {
+            int n = Math.min(scratch.length, src.remaining());
+            src.get(scratch, 0, n);
+            memory.write(offset, scratch, 0, n);
+            offset += n;
+        }
+    }
+
+    /**
+     * Fills the remaining bytes of dst with the memory at offset. The position of dst is advanced to its limit.
+     */
+    public static void read(NativeMemory memory, long offset, ByteBuffer dst) {
+        int length = dst.remaining();
+        checkMemory(memory, offset, length);
+        if (dst.hasArray()) {
+            memory.read(offset, dst.array(), dst.arrayOffset() + dst.position(), length);
+            dst.position(dst.limit());
+            return;
+        }
+
+        byte[] scratch = scratch();
+        while (dst.hasRemaining()) {
+            int n = Math.min(scratch.length, dst.remaining());
+            memory.read(offset, scratch, 0, n);
+            dst.put(scratch, 0, n);
+            offset += n;
+        }
+    }
+
+    /**
+     * Writes all vectors to the memory in order while holding the read lock of the memory once.
+     * Vectors that are adjacent in the memory are gathered in the scratch buffer and written with a single native copy.
+     */
+    public static void writev(NativeMemory memory, List<IoVector> vectors) {
+        for (IoVector vector : vectors) {
+            checkMemory(memory, vector.getMemoryOffset(), vector.getLength());
+        }
+
+        ReentrantReadWriteLock.ReadLock lock = memory.readLock();
+        lock.lock();
+        try {
+            byte[] scratch = scratch();
+            long pendingOffset = 0;
+            int pending = 0;
+            for (IoVector vector : vectors) {
+                int length = vector.getLength();
+                if (length == 0) {
+                    continue;
+                }
+
+                if (pending > 0 && (pendingOffset + pending != vector.getMemoryOffset() || pending + length > scratch.length)) {
+                    memory.write(pendingOffset, scratch, 0, pending);
+                    pending = 0;
+                }
+
+                if (length > scratch.length) {
+                    memory.write(vector.getMemoryOffset(), vector.getBuffer(), vector.getBufferOffset(), length);
+                    continue;
+                }
+
+                if (pending == 0) {
+                    pendingOffset = vector.getMemoryOffset();
+                }
+
+                System.arraycopy(vector.getBuffer(), vector.getBufferOffset(), scratch, pending, length);
+                pending += length;
+            }
+
+            if (pending > 0) {
+                memory.write(pendingOffset, scratch, 0, pending);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fills all vectors from the memory while holding the read lock of the memory once.
+     * Vectors that are adjacent in the memory are read with a single native copy and scattered from the scratch buffer.
+     */
+    public static void readv(NativeMemory memory, List<IoVector> vectors) {
+        for (IoVector vector : vectors) {
+            checkMemory(memory, vector.getMemoryOffset(), vector.getLength());
+        }
+
+        ReentrantReadWriteLock.ReadLock lock = memory.readLock();
+        lock.lock();
+        try {
+            byte[] scratch = scratch();
+            int first = 0;
+            long pendingOffset = 0;
+            int pending = 0;
+            for (int i = 0; i < vectors.size(); i++) {
+                IoVector vector = vectors.get(i);
+                int length = vector.getLength();
+                if (length == 0) {
+                    continue;
+                }
+
+                if (pending > 0 && (pendingOffset + pending != vector.getMemoryOffset() || pending + length > scratch.length)) {
+                    scatter(memory, scratch, pendingOffset, pending, vectors, first, i);
+                    pending = 0;
+                }
+
+                if (length > scratch.length) {
+                    memory.read(vector.getMemoryOffset(), vector.getBuffer(), vector.getBufferOffset(), length);
+                    continue;
+                }
+
+                if (pending == 0) {
+                    pendingOffset = vector.getMemoryOffset();
+                    first = i;
+                }
+
+                pending += length;
+            }
+
+            if (pending > 0) {
+                scatter(memory, scratch, pendingOffset, pending, vectors, first, vectors.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void scatter(NativeMemory memory, byte[] scratch, long offset, int length, List<IoVector> vectors, int from, int to) {
+        memory.read(offset, scratch, 0, length);
+        int position = 0;
+        for (int i = from; i < to; i++) {
+            IoVector vector = vectors.get(i);
+            System.arraycopy(scratch, position, vector.getBuffer(), vector.getBufferOffset(), vector.getLength());
+            position += vector.getLength();
+        }
+    }
+
+    /**
+     * Copies length bytes from srcOffset to dstOffset inside the memory. Overlapping ranges are copied like memmove.
+     */
+    public static void copy(NativeMemory memory, long srcOffset, long dstOffset, long length) {
+        copyTo(memory, srcOffset, memory, dstOffset, length);
+    }
+
+    /**
+     * Copies length bytes from srcOffset of src to dstOffset of dst. If src and dst are the same NativeMemory then
+     * overlapping ranges are copied like memmove. Overlaps of two different mappings of the same file are not detected.
+     */
+    public static void copyTo(NativeMemory src, long srcOffset, NativeMemory dst, long dstOffset, long length) {
+        checkMemory(src, srcOffset, length);
+        checkMemory(dst, dstOffset, length);
+        if (length == 0 || (src == dst && srcOffset == dstOffset)) {
+            return;
+        }
+
+        ReentrantReadWriteLock.ReadLock srcLock = src.readLock();
+        ReentrantReadWriteLock.ReadLock dstLock = dst.readLock();
+        srcLock.lock();
+        dstLock.lock();
+        try {
+            byte[] scratch = scratch();
+            boolean backwards = src == dst && dstOffset > srcOffset && dstOffset < srcOffset + length;
+            long done = 0;
+            while (done < length) {
+                int n = (int) Math.min(scratch.length, length - done);
+                long position = backwards ? length - done - n : done;
+                src.read(srcOffset + position, scratch, 0, n);
+                dst.write(dstOffset + position, scratch, 0, n);
+                done += n;
+            }
+        } finally {
+            dstLock.unlock();
+            srcLock.unlock();
+        }
+    }
+}
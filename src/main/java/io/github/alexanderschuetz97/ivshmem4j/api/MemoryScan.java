@@ -0,0 +1,265 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static io.github.alexanderschuetz97.ivshmem4j.api.MemoryAccess.checkMemory;
+import static io.github.alexanderschuetz97.ivshmem4j.api.MemoryAccess.scratch;
+
+/**
+ * Compare, search and hash operations over a NativeMemory.
+ * The memory is read in chunks into the per thread scratch buffer of MemoryAccess so no garbage is created
+ * regardless of the size of the region.
+ */
+public class MemoryScan {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final int[] CRC32C_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+            }
+            CRC32C_TABLE[i] = crc;
+        }
+    }
+
+    private MemoryScan() {
+
+    }
+
+    /**
+     * returns the index relative to the offsets of the first byte that differs in both regions or -1 if both regions are equal.
+     */
+    public static long mismatch(NativeMemory a, long aOffset, NativeMemory b, long bOffset, long length) {
+        checkMemory(a, aOffset, length);
+        checkMemory(b, bOffset, length);
+        byte[] scratch = scratch();
+        int half = scratch.length / 2;
+        ByteBuffer buffer = ByteBuffer.wrap(scratch);
+        long done = 0;
+        while (done < length) {
+            int n = (int) Math.min(half, length - done);
+            a.read(aOffset + done, scratch, 0, n);
+            b.read(bOffset + done, scratch, half, n);
+            int i = 0;
+            //compare 8 bytes at a time until a word differs
+            while (i + 8 <= n && buffer.getLong(i) == buffer.getLong(half + i)) {
+                i += 8;
+            }
+
+            for (; i < n; i++) {
+                if (scratch[i] != scratch[half + i]) {
+                    return done + i;
+                }
+            }
+
+            done += n;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Compares both regions lexicographically as unsigned bytes.
+     * returns 0 if both regions are equal, a negative value if region a is smaller and a positive value otherwise.
+     */
+    public static int compare(NativeMemory a, long aOffset, NativeMemory b, long bOffset, long length) {
+        long index = mismatch(a, aOffset, b, bOffset, length);
+        if (index == -1) {
+            return 0;
+        }
+
+        return a.readUnsignedByte(aOffset + index) - b.readUnsignedByte(bOffset + index);
+    }
+
+    /**
+     * returns the offset of the first occurrence of value between from (inclusive) and to (exclusive) or -1.
+     */
+    public static long indexOf(NativeMemory memory, long from, long to, byte value) {
+        checkMemory(memory, from, to - from);
+        byte[] scratch = scratch();
+        long position = from;
+        while (position < to) {
+            int n = (int) Math.min(scratch.length, to - position);
+            memory.read(position, scratch, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (scratch[i] == value) {
+                    return position + i;
+                }
+            }
+
+            position += n;
+        }
+
+        return -1;
+    }
+
+    /**
+     * returns the offset of the first occurrence of pattern that lies entirely between from (inclusive) and to (exclusive) or -1.
+     * The pattern must not be larger than 32 KiB.
+     */
+    public static long indexOf(NativeMemory memory, long from, long to, byte[] pattern) {
+        checkMemory(memory, from, to - from);
+        byte[] scratch = scratch();
+        if (pattern.length > scratch.length / 2) {
+            throw new IllegalArgumentException("pattern is too large");
+        }
+
+        if (pattern.length == 0) {
+            return from;
+        }
+
+        long position = from;
+        while (to - position >= pattern.length) {
+            int n = (int) Math.min(scratch.length, to - position);
+            memory.read(position, scratch, 0, n);
+            search:
+            for (int i = 0; i <= n - pattern.length; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (scratch[i + j] != pattern[j]) {
+                        continue search;
+                    }
+                }
+
+                return position + i;
+            }
+
+            if (position + n == to) {
+                break;
+            }
+
+            //the next chunk overlaps so a pattern across the chunk border is found.
+            position += n - pattern.length + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * returns the XXH64 hash with seed 0 of the region. This is the same value as the reference implementation of xxHash computes.
+     */
+    public static long hash64(NativeMemory memory, long offset, long length) {
+        checkMemory(memory, offset, length);
+        byte[] scratch = scratch();
+        ByteBuffer buffer = ByteBuffer.wrap(scratch).order(ByteOrder.LITTLE_ENDIAN);
+
+        long v1 = P1 + P2;
+        long v2 = P2;
+        long v3 = 0;
+        long v4 = -P1;
+        long stripes = length - length % 32;
+
+        //the scratch size is a multiple of 32 so the remaining bytes are always in the last chunk.
+        long done = 0;
+        int n = 0;
+        int i = 0;
+        do {
+            n = (int) Math.min(scratch.length, length - done);
+            memory.read(offset + done, scratch, 0, n);
+            for (i = 0; i + 32 <= n && done + i < stripes; i += 32) {
+                v1 = round(v1, buffer.getLong(i));
+                v2 = round(v2, buffer.getLong(i + 8));
+                v3 = round(v3, buffer.getLong(i + 16));
+                v4 = round(v4, buffer.getLong(i + 24));
+            }
+            done += n;
+        } while (done < length);
+
+        long h;
+        if (length >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = P5;
+        }
+
+        h += length;
+
+        for (; i + 8 <= n; i += 8) {
+            h ^= round(0, buffer.getLong(i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+
+        if (i + 4 <= n) {
+            h ^= (buffer.getInt(i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+
+        for (; i < n; i++) {
+            h ^= (scratch[i] & 0xFFL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * P1 + P4;
+    }
+
+    /**
+     * returns the CRC-32C (Castagnoli) checksum of the region as used by iSCSI, ext4 and java.util.zip.CRC32C.
+     */
+    public static int crc32c(NativeMemory memory, long offset, long length) {
+        checkMemory(memory, offset, length);
+        byte[] scratch = scratch();
+        int crc = 0xFFFFFFFF;
+        long done = 0;
+        while (done < length) {
+            int n = (int) Math.min(scratch.length, length - done);
+            memory.read(offset + done, scratch, 0, n);
+            for (int i = 0; i < n; i++) {
+                crc = (crc >>> 8) ^ CRC32C_TABLE[(crc ^ scratch[i]) & 0xFF];
+            }
+            done += n;
+        }
+
+        return ~crc;
+    }
+}
@@ -0,0 +1,112 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Transfer object that contains the numa memory policy and the amount of resident pages per numa node of a shared memory mapping.
+ */
+public class NumaPlacement {
+
+    private final String policy;
+    private final long pageSize;
+    private final Map<Integer, Long> pages;
+
+    public NumaPlacement(String policy, long pageSize, Map<Integer, Long> pages) {
+        this.policy = policy;
+        this.pageSize = pageSize;
+        this.pages = Collections.unmodifiableMap(new TreeMap<>(pages));
+    }
+
+    /**
+     * The memory policy of the mapping as reported by the kernel. For example "default", "bind:0" or "interleave:0-1".
+     */
+    public String getPolicy() {
+        return policy;
+    }
+
+    /**
+     * The size of a page of the mapping in bytes.
+     */
+    public long getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * returns all numa nodes that have at least one resident page of the mapping.
+     */
+    public Set<Integer> getNodes() {
+        return pages.keySet();
+    }
+
+    /**
+     * returns the amount of resident pages of the mapping on the given numa node.
+     */
+    public long getPages(int node) {
+        Long l = pages.get(node);
+        return l == null ? 0 : l;
+    }
+
+    /**
+     * returns the amount of resident pages of the mapping on all numa nodes.
+     */
+    public long getTotalPages() {
+        long total = 0;
+        for (long l : pages.values()) {
+            total += l;
+        }
+
+        return total;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        NumaPlacement that = (NumaPlacement) o;
+
+        if (pageSize != that.pageSize) return false;
+        if (policy != null ? !policy.equals(that.policy) : that.policy != null) return false;
+        return pages.equals(that.pages);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = policy != null ? policy.hashCode() : 0;
+        result = 31 * result + (int) (pageSize ^ (pageSize >>> 32));
+        result = 31 * result + pages.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "NumaPlacement{" +
+                "policy='" + policy + '\'' +
+                ", pageSize=" + pageSize +
+                ", pages=" + pages +
+                '}';
+    }
+}
@@ -0,0 +1,64 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+/**
+ * Transfer object for a connect or disconnect of a peer. See PeerConnectionListener.
+ */
+public class PeerEvent {
+
+    private final int peer;
+    private final boolean connected;
+    private final int connectedVectors;
+
+    public PeerEvent(int peer, boolean connected, int connectedVectors) {
+        this.peer = peer;
+        this.connected = connected;
+        this.connectedVectors = connectedVectors;
+    }
+
+    public int getPeer() {
+        return peer;
+    }
+
+    /**
+     * true for a call to PeerConnectionListener.onConnect, false for a call to onDisconnect.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * The amount of connected vectors of a connect event. -1 if it is unknown and 0 for a disconnect event.
+     */
+    public int getConnectedVectors() {
+        return connectedVectors;
+    }
+
+    @Override
+    public String toString() {
+        return "PeerEvent{" +
+                "peer=" + peer +
+                ", connected=" + connected +
+                ", connectedVectors=" + connectedVectors +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+/**
+ * Transfer object for what a peer published in a peer registry.
+ */
+public class PeerInfo {
+
+    private final int peer;
+    private final long capabilities;
+    private final String identity;
+
+    public PeerInfo(int peer, long capabilities, String identity) {
+        this.peer = peer;
+        this.capabilities = capabilities;
+        this.identity = identity;
+    }
+
+    public int getPeer() {
+        return peer;
+    }
+
+    public long getCapabilities() {
+        return capabilities;
+    }
+
+    public String getIdentity() {
+        return identity;
+    }
+
+    @Override
+    public String toString() {
+        return "PeerInfo{" +
+                "peer=" + peer +
+                ", capabilities=" + capabilities +
+                ", identity='" + identity + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,41 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+/**
+ * Shared memory whose peers can discover each other with a peer registry inside the shared memory.
+ * This is implemented by ivshmem-plain and by the windows pci device. ivshmem-doorbell does not need it
+ * because the ivshmem-server already announces all peers.
+ */
+public interface PeerRegistryIvshmemMemory extends IvshmemMemory {
+
+    /**
+     * Joins a peer registry inside the shared memory. Afterwards knowsOtherPeers returns true, getPeers and isOtherPeerConnected
+     * answer from the registry and PeerConnectionListeners are notified when a peer joins or its lease expires.
+     * If this shared memory does not support interrupts then the slot claimed in the registry becomes the own peer id.
+     */
+    void joinPeerRegistry(PeerRegistryOptions options);
+
+    /**
+     * returns the capabilities and identity that the peer published in the joined peer registry or null if it is not connected.
+     */
+    PeerInfo getPeerInfo(int peer);
+}
@@ -0,0 +1,122 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+/**
+ * Options of a peer registry inside the shared memory. All peers that join the same registry must use the same offset,
+ * slots and lease. The region needs SharedPeerRegistry.size(slots) bytes and must be zero before the first peer joins.
+ */
+public class PeerRegistryOptions {
+
+    /**
+     * Maximum size of the identity in bytes when encoded as UTF-8.
+     */
+    public static final int MAX_IDENTITY_LENGTH = 28;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long offset;
+    private final int slots;
+    private long leaseMillis = 100;
+    private long capabilities;
+    private String identity = "";
+
+    public PeerRegistryOptions(long offset, int slots) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset");
+        }
+
+        if (slots <= 0 || slots > 0x10000) {
+            throw new IllegalArgumentException("slots");
+        }
+
+        this.offset = offset;
+        this.slots = slots;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * The maximum amount of peers. Peer ids are always smaller than this.
+     */
+    public int getSlots() {
+        return slots;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * A peer whose heartbeat did not change for this many milliseconds is considered disconnected.
+     * Heartbeats are written four times per lease.
+     */
+    public PeerRegistryOptions setLeaseMillis(long leaseMillis) {
+        if (leaseMillis < 4) {
+            throw new IllegalArgumentException("leaseMillis");
+        }
+        this.leaseMillis = leaseMillis;
+        return this;
+    }
+
+    public long getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Application defined bits that other peers can read with getPeerInfo.
+     */
+    public PeerRegistryOptions setCapabilities(long capabilities) {
+        this.capabilities = capabilities;
+        return this;
+    }
+
+    public String getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Application defined name that other peers can read with getPeerInfo. At most MAX_IDENTITY_LENGTH bytes as UTF-8.
+     */
+    public PeerRegistryOptions setIdentity(String identity) {
+        if (Objects.requireNonNull(identity).getBytes(UTF_8).length > MAX_IDENTITY_LENGTH) {
+            throw new IllegalArgumentException("identity is longer than " + MAX_IDENTITY_LENGTH + " bytes");
+        }
+        this.identity = identity;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "PeerRegistryOptions{" +
+                "offset=" + offset +
+                ", slots=" + slots +
+                ", leaseMillis=" + leaseMillis +
+                ", capabilities=" + capabilities +
+                ", identity='" + identity + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,59 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.api;
+
+/**
+ * Shared memory of an ivshmem-plain file. The file can be mapped partially as windows and grown while it is open.
+ */
+public interface PlainIvshmemMemory extends LinuxIvshmemMemory, PeerRegistryIvshmemMemory {
+
+    /**
+     * returns the offset of the memory mapping in the shared memory file. This is 0 unless the memory was opened as a window.
+     */
+    long getWindowOffset();
+
+    /**
+     * Moves the memory mapping to the given offset of the shared memory file without changing its size.
+     * The NativeMemory previously returned by getMemory is closed by this call and getMemory must be called again.
+     */
+    void moveWindow(long offset);
+
+    /**
+     * Maps size bytes starting at offset of the shared memory file as a separate window. The window shares the file
+     * descriptor with this shared memory but has to be closed separately.
+     */
+    PlainIvshmemMemory openWindow(long offset, long size);
+
+    /**
+     * Extends the shared memory file to newSize bytes and maps the entire file again. The native binding has no mremap so the
+     * NativeMemory previously returned by getMemory is closed by this call and getMemory must be called again. If MappingOptions.setGenerationOffset was used then the
+     * generation counter is incremented after the file was extended so other processes can detect it with remapIfGrown.
+     * Concurrent calls by different processes must be coordinated by the caller.
+     * This is not supported for windows.
+     */
+    void grow(long newSize);
+
+    /**
+     * Maps the entire shared memory file if another process has grown it. If MappingOptions.setGenerationOffset was used then this
+     * only reads the generation counter unless it changed. returns true if the NativeMemory returned by getMemory was replaced.
+     */
+    boolean remapIfGrown();
+}
@@ -0,0 +1,282 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Interrupt mitigation for a receiver of work that other peers put into the shared memory, like NAPI in the linux kernel.
+ * Every peer has an armed flag in the shared memory. A sender only rings the doorbell of the receiver if the flag is set
+ * and clears it at the same time. The receiver then polls its work with the PollHandler in polling mode until the handler
+ * reports no work for a configurable amount of polls and only then arms the flag again.
+ * Under load the receiver therefore takes no interrupts at all while an idle receiver is woken by the next interrupt.
+ * <p>
+ * If the shared memory does not support interrupts then the receiver never arms and polls with a backoff instead.
+ * Layout: a header cache line and one cache line per peer.
+ */
+public class AdaptivePoller implements AutoCloseable {
+
+    private static final int MAGIC = 0x4E415049;
+
+    /**
+     * Processes the work of this peer.
+     */
+    public interface PollHandler {
+        /**
+         * Processes at most budget units of work and returns how many were processed. 0 means there was no work.
+         */
+        int poll(int budget);
+    }
+
+    private final IvshmemMemory memory;
+    private final long offset;
+    private final int maxPeers;
+    private final int vector;
+    private final int ownPeer;
+    private final PollHandler pollHandler;
+    private final Executor executor;
+    private final Thread.UncaughtExceptionHandler handler;
+    private final boolean interrupts;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int budget = 64;
+    private volatile int idlePolls = 16;
+    private volatile boolean closed;
+
+    private final InterruptServiceRoutine isr = new InterruptServiceRoutine() {
+        @Override
+        public void onInterrupt(int aInterrupt) {
+            schedule();
+        }
+    };
+
+    private final Runnable loop = new Runnable() {
+        @Override
+        public void run() {
+            pollLoop();
+        }
+    };
+
+    public static long size(int maxPeers) {
+        return CACHE_LINE + maxPeers * CACHE_LINE;
+    }
+
+    /**
+     * Uses the own peer id of the shared memory which must support interrupts.
+     */
+    public AdaptivePoller(IvshmemMemory memory, long offset, int maxPeers, int vector, PollHandler pollHandler, Executor executor, Thread.UncaughtExceptionHandler handler) {
+        this(memory, offset, maxPeers, vector, memory.getOwnPeerID(), pollHandler, executor, handler);
+    }
+
+    /**
+     * @param maxPeers all peer ids must be smaller than maxPeers.
+     * @param executor runs the polling loop. In polling mode the loop occupies one thread of the executor.
+     * @param handler receives the exceptions thrown by the PollHandler.
+     */
+    public AdaptivePoller(IvshmemMemory memory, long offset, int maxPeers, int vector, int ownPeer, PollHandler pollHandler, Executor executor, Thread.UncaughtExceptionHandler handler) {
+        this.memory = Objects.requireNonNull(memory);
+        this.pollHandler = Objects.requireNonNull(pollHandler);
+        this.executor = Objects.requireNonNull(executor);
+        this.handler = Objects.requireNonNull(handler);
+        if (maxPeers <= 0) {
+            throw new IllegalArgumentException("maxPeers");
+        }
+
+        if (ownPeer < 0 || ownPeer >= maxPeers) {
+            throw new IvshmemException("peer " + ownPeer + " is not smaller than " + maxPeers);
+        }
+
+        this.offset = offset;
+        this.maxPeers = maxPeers;
+        this.vector = vector;
+        this.ownPeer = ownPeer;
+        this.interrupts = memory.supportsInterrupts();
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(maxPeers));
+        SharedRegion.attach(mem, offset, MAGIC, maxPeers);
+
+        if (interrupts) {
+            if (memory.getOwnPeerID() != ownPeer) {
+                throw new IvshmemException("ownPeer must be the own peer id " + memory.getOwnPeerID());
+            }
+
+            if (!memory.isVectorValid(vector)) {
+                throw new IvshmemException("invalid vector");
+            }
+
+            memory.registerInterruptServiceRoutine(vector, isr);
+        }
+
+        //start in polling mode, the loop arms the flag once there is no work
+        schedule();
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Maximum units of work passed to a single call of the PollHandler. Default 64.
+     */
+    public AdaptivePoller setBudget(int budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("budget");
+        }
+        this.budget = budget;
+        return this;
+    }
+
+    public int getIdlePolls() {
+        return idlePolls;
+    }
+
+    /**
+     * Amount of consecutive polls without work before interrupts are armed again. Default 16.
+     */
+    public AdaptivePoller setIdlePolls(int idlePolls) {
+        if (idlePolls <= 0) {
+            throw new IllegalArgumentException("idlePolls");
+        }
+        this.idlePolls = idlePolls;
+        return this;
+    }
+
+    private long armed(int peer) {
+        return offset + CACHE_LINE + peer * CACHE_LINE;
+    }
+
+    /**
+     * Called by a sender after it put work for the peer into the shared memory.
+     * Rings the doorbell of the peer only if it is armed. returns true if an interrupt was sent.
+     */
+    public boolean signal(int peer) {
+        if (peer < 0 || peer >= maxPeers) {
+            throw new IvshmemException("peer " + peer + " is not smaller than " + maxPeers);
+        }
+
+        if (memory.getMemory().getAndSet(armed(peer), 0L) == 0) {
+            return false;
+        }
+
+        if (peer == ownPeer) {
+            schedule();
+        } else {
+            memory.sendInterrupt(peer, vector);
+        }
+
+        return true;
+    }
+
+    /**
+     * returns true if this peer currently takes interrupts instead of polling.
+     */
+    public boolean isArmed() {
+        return memory.getMemory().readLong(armed(ownPeer)) != 0;
+    }
+
+    private void schedule() {
+        if (closed || requests.getAndIncrement() != 0) {
+            return;
+        }
+
+        try {
+            executor.execute(loop);
+        } catch (RejectedExecutionException exc) {
+            //the next interrupt tries again
+            requests.set(0);
+            handler.uncaughtException(Thread.currentThread(), exc);
+        }
+    }
+
+    private void pollLoop() {
+        NativeMemory mem = memory.getMemory();
+        long flag = armed(ownPeer);
+        int idle = 0;
+        while (!closed) {
+            int seen = requests.get();
+            int processed = poll();
+            if (processed > 0) {
+                idle = 0;
+                continue;
+            }
+
+            //saturate instead of overflowing, a negative count would skip the backoff of a memory without interrupts
+            if (idle < Integer.MAX_VALUE) {
+                idle++;
+            }
+
+            if (idle < idlePolls) {
+                continue;
+            }
+
+            if (!interrupts) {
+                Backoff.pause(idle);
+                continue;
+            }
+
+            //arm and check again, work that was added before arming did not ring the doorbell
+            mem.getAndSet(flag, 1L);
+            if (poll() > 0) {
+                //if a sender disarmed us in the mean time then its interrupt only increments requests
+                mem.getAndSet(flag, 0L);
+                idle = 0;
+                continue;
+            }
+
+            if (requests.compareAndSet(seen, 0)) {
+                return;
+            }
+        }
+
+        requests.set(0);
+    }
+
+    private int poll() {
+        try {
+            return pollHandler.poll(budget);
+        } catch (Throwable exc) {
+            handler.uncaughtException(Thread.currentThread(), exc);
+            return 0;
+        }
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (interrupts) {
+            memory.removeInterruptServiceRoutine(vector, isr);
+        }
+    }
+}
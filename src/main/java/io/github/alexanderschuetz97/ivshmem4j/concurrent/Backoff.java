@@ -0,0 +1,51 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Backoff for threads that spin on a word in the shared memory. A thread busy spins at first, then yields and finally
+ * sleeps for up to 100 microseconds between reads.
+ */
+class Backoff {
+
+    private static final int SPINS = 256;
+    private static final int YIELDS = 64;
+    private static final long MAX_PARK_NANOS = 100_000;
+
+    private Backoff() {
+
+    }
+
+    static void pause(int iteration) {
+        if (iteration < SPINS) {
+            return;
+        }
+
+        if (iteration < SPINS + YIELDS) {
+            Thread.yield();
+            return;
+        }
+
+        LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(7, iteration - SPINS - YIELDS)));
+    }
+}
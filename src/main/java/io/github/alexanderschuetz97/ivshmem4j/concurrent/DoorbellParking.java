@@ -0,0 +1,177 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Parks threads that wait for a condition in the shared memory until another peer rings the doorbell of this peer on the
+ * given vector. Shared structures register the parked peer in their own region so a waker only interrupts peers that
+ * actually wait. Threads of this process are woken without an interrupt.
+ * <p>
+ * If the shared memory does not support interrupts, for example ivshmem-plain, then parked threads poll the condition instead.
+ * Waiters use java.util.concurrent locks only so parking does not pin virtual threads.
+ */
+public class DoorbellParking implements AutoCloseable {
+
+    private final IvshmemMemory memory;
+    private final int vector;
+    private final int ownPeer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition signal = lock.newCondition();
+    private volatile long generation;
+    private volatile long spinNanos = TimeUnit.MICROSECONDS.toNanos(20);
+    private volatile long pollNanos;
+
+    private final InterruptServiceRoutine isr = new InterruptServiceRoutine() {
+        @Override
+        public void onInterrupt(int aInterrupt) {
+            signalLocal();
+        }
+    };
+
+    public DoorbellParking(IvshmemMemory memory, int vector) {
+        this.memory = Objects.requireNonNull(memory);
+        this.vector = vector;
+        if (memory.supportsInterrupts()) {
+            if (!memory.isVectorValid(vector)) {
+                throw new IvshmemException("invalid vector");
+            }
+
+            this.ownPeer = memory.getOwnPeerID();
+            this.pollNanos = TimeUnit.MILLISECONDS.toNanos(100);
+            memory.registerInterruptServiceRoutine(vector, isr);
+        } else {
+            this.ownPeer = -1;
+            this.pollNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    public IvshmemMemory getMemory() {
+        return memory;
+    }
+
+    public int getVector() {
+        return vector;
+    }
+
+    /**
+     * returns the peer id that other peers interrupt to wake this process or -1 if waiters poll.
+     */
+    public int getOwnPeer() {
+        return ownPeer;
+    }
+
+    public long getSpinNanos() {
+        return spinNanos;
+    }
+
+    /**
+     * How long a waiter busy spins on the condition before it parks. Default 20 microseconds.
+     */
+    public DoorbellParking setSpinNanos(long spinNanos) {
+        if (spinNanos < 0) {
+            throw new IllegalArgumentException("spinNanos");
+        }
+        this.spinNanos = spinNanos;
+        return this;
+    }
+
+    public long getPollNanos() {
+        return pollNanos;
+    }
+
+    /**
+     * How long a parked waiter sleeps at most before it checks the condition again. This bounds the delay of a lost wake up.
+     * Default 100 milliseconds with interrupts and 1 millisecond without interrupts.
+     */
+    public DoorbellParking setPollNanos(long pollNanos) {
+        if (pollNanos <= 0) {
+            throw new IllegalArgumentException("pollNanos");
+        }
+        this.pollNanos = pollNanos;
+        return this;
+    }
+
+    /**
+     * returns the current wake up generation. It must be read before the condition is checked for the last time.
+     */
+    long generation() {
+        return generation;
+    }
+
+    /**
+     * Waits until a wake up happened after generation was read or until nanos passed.
+     */
+    void await(long generation, long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (this.generation == generation && nanos > 0) {
+                nanos = signal.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes all threads of this process that are parked.
+     */
+    void signalLocal() {
+        lock.lock();
+        try {
+            generation++;
+            signal.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Interrupts the given peer on the vector of this parking. Peers that disconnected in the mean time are ignored.
+     */
+    void wake(int peer) {
+        if (peer == ownPeer || ownPeer == -1) {
+            return;
+        }
+
+        try {
+            memory.sendInterrupt(peer, vector);
+        } catch (IvshmemException exc) {
+            //Peer is gone, it can not wait anymore.
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownPeer != -1) {
+            memory.removeInterruptServiceRoutine(vector, isr);
+        }
+        signalLocal();
+    }
+}
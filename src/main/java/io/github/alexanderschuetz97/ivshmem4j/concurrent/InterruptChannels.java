@@ -0,0 +1,258 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Logical interrupt channels that are multiplexed over a single doorbell vector.
+ * Every peer has a pending bitmap with one bit per channel and a doorbell flag in the shared memory. A sender sets the bit
+ * of the channel and only rings the doorbell vector of the receiver if the doorbell flag was not already set, so a burst
+ * of events on many channels costs one interrupt. The receiver clears the flag, then takes all pending bits with atomic
+ * operations and calls the InterruptServiceRoutines of each channel with the channel number.
+ * <p>
+ * Layout: a header cache line and per peer a cache line with the doorbell flag followed by the pending bitmap.
+ * If the shared memory does not support interrupts then the receiver has to call poll.
+ */
+public class InterruptChannels implements AutoCloseable {
+
+    private static final int MAGIC = 0x4348414E;
+
+    private final IvshmemMemory memory;
+    private final long offset;
+    private final int maxPeers;
+    private final int channels;
+    private final int words;
+    private final long peerSize;
+    private final int vector;
+    private final int ownPeer;
+    private final boolean interrupts;
+    private final Thread.UncaughtExceptionHandler handler;
+    private final ConcurrentMap<Integer, Collection<InterruptServiceRoutine>> isrs = new ConcurrentHashMap<>();
+
+    private final InterruptServiceRoutine doorbell = new InterruptServiceRoutine() {
+        @Override
+        public void onInterrupt(int aInterrupt) {
+            poll();
+        }
+    };
+
+    public static long size(int maxPeers, int channels) {
+        return CACHE_LINE + maxPeers * peerSize(channels);
+    }
+
+    private static long peerSize(int channels) {
+        return CACHE_LINE + SharedRegion.align(((channels + 63) / 64) * 8L);
+    }
+
+    /**
+     * Uses the own peer id of the shared memory which must support interrupts.
+     */
+    public InterruptChannels(IvshmemMemory memory, long offset, int maxPeers, int channels, int vector, Thread.UncaughtExceptionHandler handler) {
+        this(memory, offset, maxPeers, channels, vector, memory.getOwnPeerID(), handler);
+    }
+
+    /**
+     * @param maxPeers all peer ids must be smaller than maxPeers.
+     * @param ownPeer the id of this peer. This must be the own peer id if the shared memory supports interrupts.
+     * @param handler receives the exceptions thrown by InterruptServiceRoutines of a channel.
+     */
+    public InterruptChannels(IvshmemMemory memory, long offset, int maxPeers, int channels, int vector, int ownPeer, Thread.UncaughtExceptionHandler handler) {
+        this.memory = Objects.requireNonNull(memory);
+        this.handler = Objects.requireNonNull(handler);
+        if (maxPeers <= 0) {
+            throw new IllegalArgumentException("maxPeers");
+        }
+
+        if (channels <= 0) {
+            throw new IllegalArgumentException("channels");
+        }
+
+        if (ownPeer < 0 || ownPeer >= maxPeers) {
+            throw new IvshmemException("peer " + ownPeer + " is not smaller than " + maxPeers);
+        }
+
+        this.offset = offset;
+        this.maxPeers = maxPeers;
+        this.channels = channels;
+        this.words = (channels + 63) / 64;
+        this.peerSize = peerSize(channels);
+        this.vector = vector;
+        this.ownPeer = ownPeer;
+        this.interrupts = memory.supportsInterrupts();
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(maxPeers, channels));
+        SharedRegion.attach(mem, offset, MAGIC, maxPeers, channels);
+
+        if (interrupts) {
+            if (memory.getOwnPeerID() != ownPeer) {
+                throw new IvshmemException("ownPeer must be the own peer id " + memory.getOwnPeerID());
+            }
+
+            if (!memory.isVectorValid(vector)) {
+                throw new IvshmemException("invalid vector");
+            }
+
+            memory.registerInterruptServiceRoutine(vector, doorbell);
+        }
+    }
+
+    private long flag(int peer) {
+        return offset + CACHE_LINE + peer * peerSize;
+    }
+
+    private void checkChannel(int channel) {
+        if (channel < 0 || channel >= channels) {
+            throw new IllegalArgumentException("channel");
+        }
+    }
+
+    /**
+     * Raises the channel on the given peer. The doorbell of the peer is only rung if no other raised channel is pending.
+     */
+    public void send(int peer, int channel) {
+        checkChannel(channel);
+        if (peer < 0 || peer >= maxPeers) {
+            throw new IvshmemException("peer " + peer + " is not smaller than " + maxPeers);
+        }
+
+        NativeMemory mem = memory.getMemory();
+        long word = flag(peer) + CACHE_LINE + (channel / 64) * 8L;
+        long bit = 1L << (channel % 64);
+        while (true) {
+            long current = mem.readLong(word);
+            if ((current & bit) != 0 || mem.compareAndSet(word, current, current | bit)) {
+                break;
+            }
+        }
+
+        if (mem.getAndSet(flag(peer), 1L) != 0) {
+            return;
+        }
+
+        if (peer == ownPeer) {
+            poll();
+        } else if (interrupts) {
+            memory.sendInterrupt(peer, vector);
+        }
+    }
+
+    /**
+     * Takes all pending channels of this peer and calls their InterruptServiceRoutines.
+     * This is called automatically when the doorbell rings and must be called periodically if the shared memory does not
+     * support interrupts. returns the amount of channels that were pending.
+     */
+    public int poll() {
+        NativeMemory mem = memory.getMemory();
+        long flag = flag(ownPeer);
+        //must be atomic so the bitmap is read after the flag was cleared
+        mem.getAndSet(flag, 0L);
+        int pending = 0;
+        for (int i = 0; i < words; i++) {
+            long word = flag + CACHE_LINE + i * 8L;
+            if (mem.readLong(word) == 0) {
+                continue;
+            }
+
+            long bits = mem.getAndSet(word, 0L);
+            while (bits != 0) {
+                int channel = i * 64 + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                pending++;
+                dispatch(channel);
+            }
+        }
+
+        return pending;
+    }
+
+    private void dispatch(int channel) {
+        Collection<InterruptServiceRoutine> routines = isrs.get(channel);
+        if (routines == null) {
+            return;
+        }
+
+        synchronized (routines) {
+            for (InterruptServiceRoutine isr : routines) {
+                try {
+                    isr.onInterrupt(channel);
+                } catch (Throwable exc) {
+                    handler.uncaughtException(Thread.currentThread(), exc);
+                }
+            }
+        }
+    }
+
+    public void registerInterruptServiceRoutine(int channel, InterruptServiceRoutine isr) {
+        checkChannel(channel);
+        Objects.requireNonNull(isr);
+        Collection<InterruptServiceRoutine> routines = isrs.get(channel);
+        if (routines == null) {
+            routines = Collections.synchronizedSet(new LinkedHashSet<InterruptServiceRoutine>());
+            Collection<InterruptServiceRoutine> previous = isrs.putIfAbsent(channel, routines);
+            if (previous != null) {
+                routines = previous;
+            }
+        }
+
+        routines.add(isr);
+    }
+
+    public void removeInterruptServiceRoutine(int channel, InterruptServiceRoutine isr) {
+        checkChannel(channel);
+        Collection<InterruptServiceRoutine> routines = isrs.get(channel);
+        if (routines != null) {
+            routines.remove(isr);
+        }
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getOwnPeer() {
+        return ownPeer;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() {
+        if (interrupts) {
+            memory.removeInterruptServiceRoutine(vector, doorbell);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs a task on a thread of an executor with a fixed delay between the runs until it is stopped. The thread waits on a
+ * condition between the runs so stopping returns it to the executor without waiting for the delay to pass.
+ * The task must handle its own exceptions.
+ */
+class PeriodicTask implements Runnable {
+
+    private final Runnable task;
+    private final long delayNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stopped = lock.newCondition();
+    private boolean stop;
+
+    PeriodicTask(Runnable task, long delayNanos) {
+        this.task = task;
+        this.delayNanos = delayNanos;
+    }
+
+    @Override
+    public void run() {
+        lock.lock();
+        try {
+            while (!stop) {
+                //The task may call stop.
+                lock.unlock();
+                try {
+                    task.run();
+                } finally {
+                    lock.lock();
+                }
+
+                long nanos = delayNanos;
+                while (!stop && nanos > 0) {
+                    nanos = stopped.awaitNanos(nanos);
+                }
+            }
+        } catch (InterruptedException exc) {
+            //The executor is shutting down.
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void stop() {
+        lock.lock();
+        try {
+            stop = true;
+            stopped.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
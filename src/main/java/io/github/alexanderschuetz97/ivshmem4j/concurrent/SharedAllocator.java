@@ -0,0 +1,212 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Lock free allocator for blocks inside a region of a shared memory that can be used by several peers at once.
+ * Block sizes are powers of two from 64 bytes up to the maximum block size. The arena is handed out in chunks with a
+ * bump pointer, a chunk is split into blocks of one size class and every size class has a free list.
+ * The free lists are stacks whose head carries a 24 bit tag to prevent ABA problems.
+ * Blocks are never returned to the arena and the size of a block must be passed to free.
+ * <p>
+ * Layout: a header cache line, a line with the bump pointer, one line per size class and the arena.
+ * Blocks are identified by their offset in the shared memory.
+ */
+public class SharedAllocator {
+
+    private static final int MAGIC = 0x414C4C43;
+
+    private static final int MIN_CHUNK = 4096;
+
+    private static final int TAG_SHIFT = 40;
+
+    private static final long BLOCK_MASK = (1L << TAG_SHIFT) - 1;
+
+    private final IvshmemMemory memory;
+    private final long offset;
+    private final int maxBlockSize;
+    private final int classes;
+    private final int chunkSize;
+    private final long bump;
+    private final long arena;
+    private final long arenaSize;
+
+    public static long size(long arenaSize, int maxBlockSize) {
+        return (2 + classes(maxBlockSize)) * CACHE_LINE + arenaSize;
+    }
+
+    private static int classes(int maxBlockSize) {
+        if (maxBlockSize < CACHE_LINE || Integer.bitCount(maxBlockSize) != 1) {
+            throw new IllegalArgumentException("maxBlockSize must be a power of two of at least " + CACHE_LINE);
+        }
+
+        return Integer.numberOfTrailingZeros(maxBlockSize) - Integer.numberOfTrailingZeros((int) CACHE_LINE) + 1;
+    }
+
+    /**
+     * @param arenaSize the amount of bytes available for blocks. Only whole chunks of max(maxBlockSize, 4096) bytes are used.
+     * @param maxBlockSize the largest block that can be allocated. All peers must use the same arenaSize and maxBlockSize.
+     */
+    public SharedAllocator(IvshmemMemory memory, long offset, long arenaSize, int maxBlockSize) {
+        this.memory = Objects.requireNonNull(memory);
+        if (arenaSize <= 0) {
+            throw new IllegalArgumentException("arenaSize");
+        }
+
+        this.offset = offset;
+        this.maxBlockSize = maxBlockSize;
+        this.classes = classes(maxBlockSize);
+        this.chunkSize = Math.max(MIN_CHUNK, maxBlockSize);
+        this.bump = offset + CACHE_LINE;
+        this.arena = offset + (2 + classes) * CACHE_LINE;
+        this.arenaSize = arenaSize - arenaSize % chunkSize;
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(arenaSize, maxBlockSize));
+        SharedRegion.attach(mem, offset, MAGIC, arenaSize, maxBlockSize);
+    }
+
+    /**
+     * returns the size of the block that is used for an allocation of the given size.
+     */
+    public int blockSize(int size) {
+        return (int) CACHE_LINE << sizeClass(size);
+    }
+
+    private int sizeClass(int size) {
+        if (size <= 0 || size > maxBlockSize) {
+            throw new IllegalArgumentException("size " + size + " is not between 1 and " + maxBlockSize);
+        }
+
+        return Math.max(0, 32 - Integer.numberOfLeadingZeros((size - 1) >>> 6));
+    }
+
+    private long head(int sizeClass) {
+        return offset + (2 + sizeClass) * CACHE_LINE;
+    }
+
+    /**
+     * returns the offset of a block of at least size bytes or -1 if the arena is exhausted.
+     * The content of the block is undefined.
+     */
+    public long allocate(int size) {
+        int sizeClass = sizeClass(size);
+        NativeMemory mem = memory.getMemory();
+        long block = pop(mem, sizeClass);
+        if (block != -1) {
+            return block;
+        }
+
+        long chunk = mem.getAndAdd(bump, (long) chunkSize);
+        if (chunk + chunkSize > arenaSize) {
+            //Another peer may have freed a block in the meantime.
+            return pop(mem, sizeClass);
+        }
+
+        //The first block is returned, the others are pushed as one chain.
+        int blockSize = (int) CACHE_LINE << sizeClass;
+        long first = arena + chunk;
+        if (chunkSize > blockSize) {
+            long last = first + chunkSize - blockSize;
+            for (long b = first + blockSize; b < last; b += blockSize) {
+                mem.write(b, encode(b + blockSize));
+            }
+            push(mem, sizeClass, first + blockSize, last);
+        }
+
+        return first;
+    }
+
+    /**
+     * Returns a block that was allocated with the given size. The block may be reused by any peer immediately.
+     */
+    public void free(long block, int size) {
+        int sizeClass = sizeClass(size);
+        long blockSize = CACHE_LINE << sizeClass;
+        if (block < arena || block >= arena + arenaSize || (block - arena) % blockSize != 0) {
+            throw new IllegalArgumentException("block " + block + " was not allocated with size " + size);
+        }
+
+        push(memory.getMemory(), sizeClass, block, block);
+    }
+
+    private long pop(NativeMemory mem, int sizeClass) {
+        long head = head(sizeClass);
+        while (true) {
+            long current = mem.readLong(head);
+            long block = decode(current);
+            if (block == -1) {
+                return -1;
+            }
+
+            //next may be garbage if the block was popped concurrently, the tag makes the compare and set fail then.
+            long next = mem.readLong(block) & BLOCK_MASK;
+            if (mem.compareAndSet(head, current, tag(current) | next)) {
+                return block;
+            }
+        }
+    }
+
+    /**
+     * Pushes the chain from first to last whose blocks are already linked.
+     */
+    private void push(NativeMemory mem, int sizeClass, long first, long last) {
+        long head = head(sizeClass);
+        while (true) {
+            long current = mem.readLong(head);
+            mem.write(last, current & BLOCK_MASK);
+            if (mem.compareAndSet(head, current, tag(current) | encode(first))) {
+                return;
+            }
+        }
+    }
+
+    private static long tag(long head) {
+        return ((head >>> TAG_SHIFT) + 1) << TAG_SHIFT;
+    }
+
+    /**
+     * Blocks are stored as offset / 64, the arena never starts at offset 0 so 0 terminates a list.
+     */
+    private static long encode(long block) {
+        return block / CACHE_LINE;
+    }
+
+    private static long decode(long word) {
+        long encoded = word & BLOCK_MASK;
+        return encoded == 0 ? -1 : encoded * CACHE_LINE;
+    }
+
+    public int getMaxBlockSize() {
+        return maxBlockSize;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,156 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Cyclic barrier inside a shared memory that can be used by several peers.
+ * The state is a single 64 bit word that contains the generation in the upper and the amount of arrived parties in the
+ * lower 32 bits. The last party to arrive starts the next generation and wakes all parked peers.
+ * Unlike java.util.concurrent.CyclicBarrier a party that times out leaves the barrier without breaking it.
+ */
+public class SharedBarrier {
+
+    private static final int MAGIC = 0x42415252;
+
+    private final DoorbellParking parking;
+    private final long offset;
+    private final int parties;
+    private final long state;
+    private final WaiterTable waiters;
+
+    public static long size() {
+        return 2 * CACHE_LINE + SharedRegion.align(WaiterTable.SIZE);
+    }
+
+    public SharedBarrier(DoorbellParking parking, long offset, int parties) {
+        this.parking = Objects.requireNonNull(parking);
+        if (parties <= 0) {
+            throw new IllegalArgumentException("parties");
+        }
+
+        this.offset = offset;
+        this.parties = parties;
+        this.state = offset + CACHE_LINE;
+        this.waiters = new WaiterTable(parking, offset + 2 * CACHE_LINE);
+
+        NativeMemory memory = parking.getMemory().getMemory();
+        SharedRegion.checkRegion(memory, offset, size());
+        SharedRegion.attach(memory, offset, MAGIC, parties);
+    }
+
+    public int await() throws InterruptedException {
+        try {
+            return await(Long.MAX_VALUE);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * returns the arrival index of the caller, parties - 1 for the first party to arrive and 0 for the last.
+     */
+    public int await(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        return await(unit.toNanos(timeout));
+    }
+
+    private int await(long timeoutNanos) throws InterruptedException, TimeoutException {
+        final NativeMemory memory = parking.getMemory().getMemory();
+        long current;
+        long next;
+        do {
+            current = memory.readLong(state);
+            int arrivedParties = (int) current + 1;
+            next = arrivedParties == parties ? ((current >>> 32) + 1) << 32 : current + 1;
+        } while (!memory.compareAndSet(state, current, next));
+
+        final long generation = current >>> 32;
+        int index = parties - 1 - (int) current;
+        if (index == 0) {
+            waiters.wakeAll();
+            return 0;
+        }
+
+        WaiterTable.WaitCondition tripped = new WaiterTable.WaitCondition() {
+            @Override
+            public boolean isSatisfied() {
+                return memory.readLong(state) >>> 32 != generation;
+            }
+        };
+
+        boolean success = false;
+        try {
+            success = waiters.await(tripped, timeoutNanos);
+        } finally {
+            if (!success && leave(memory, generation)) {
+                success = true;
+            }
+        }
+
+        if (!success) {
+            throw new TimeoutException();
+        }
+
+        return index;
+    }
+
+    /**
+     * Removes an arrival of the given generation. returns true if the barrier already tripped.
+     */
+    private boolean leave(NativeMemory memory, long generation) {
+        while (true) {
+            long current = memory.readLong(state);
+            if (current >>> 32 != generation) {
+                return true;
+            }
+
+            if (memory.compareAndSet(state, current, current - 1)) {
+                return false;
+            }
+        }
+    }
+
+    public int getParties() {
+        return parties;
+    }
+
+    public int getNumberWaiting() {
+        return (int) parking.getMemory().getMemory().readLong(state);
+    }
+
+    /**
+     * returns how often the barrier tripped so far.
+     */
+    public long getGeneration() {
+        return parking.getMemory().getMemory().readLong(state) >>> 32;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,386 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Key value cache inside a shared memory that several peers read and fill at the same time.
+ * The entry table is set associative, a key hashes to one bucket of 8 entries. Every bucket evicts with its own CLOCK hand,
+ * a hit sets the reference bit of the entry in the bucket with an atomic or and the hand clears reference bits until it
+ * finds an entry without one. Key and value are stored together in a block of a SharedAllocator so the maximum block size
+ * limits the size of an entry.
+ * <p>
+ * Readers take no lock. Every entry has a sequence number that writers make odd while they modify the entry, a reader
+ * copies the key and value and retries if the sequence changed in the meantime. Writers of the same bucket are serialized
+ * by a spin lock in the bucket, a peer that dies while holding it blocks further writes to that bucket.
+ * <p>
+ * Layout: a header cache line and per bucket a line with the lock, the hand and the reference bits followed by 8 entries
+ * of 32 bytes. An entry contains the sequence, the hash of the key (0 for an empty entry), the block and the key and value lengths.
+ */
+public class SharedClockCache {
+
+    private static final int MAGIC = 0x434C4B43;
+
+    private static final int WAYS = 8;
+
+    private static final long ENTRY_SIZE = 32;
+
+    private static final long BUCKET_SIZE = CACHE_LINE + WAYS * ENTRY_SIZE;
+
+    private static final int READ_RETRIES = 16;
+
+    private static final long SEQUENCE = 0;
+    private static final long HASH = 8;
+    private static final long BLOCK = 16;
+    private static final long KEY_LENGTH = 24;
+    private static final long VALUE_LENGTH = 28;
+
+    private static final long LOCK = 0;
+    private static final long HAND = 4;
+    private static final long REFERENCED = 8;
+
+    private final IvshmemMemory memory;
+    private final SharedAllocator allocator;
+    private final long offset;
+    private final int buckets;
+
+    public static long size(int buckets) {
+        return CACHE_LINE + buckets * BUCKET_SIZE;
+    }
+
+    /**
+     * @param buckets the amount of buckets of 8 entries, must be a power of two. All peers must use the same value.
+     * @param allocator allocator for the blocks of the entries, all peers must use the same region for it.
+     */
+    public SharedClockCache(IvshmemMemory memory, long offset, int buckets, SharedAllocator allocator) {
+        this.memory = Objects.requireNonNull(memory);
+        this.allocator = Objects.requireNonNull(allocator);
+        if (buckets <= 0 || Integer.bitCount(buckets) != 1) {
+            throw new IllegalArgumentException("buckets must be a power of two");
+        }
+
+        this.offset = offset;
+        this.buckets = buckets;
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(buckets));
+        SharedRegion.attach(mem, offset, MAGIC, buckets, allocator.getOffset());
+    }
+
+    /**
+     * 64 bit FNV-1a, 0 is reserved for empty entries.
+     */
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash == 0 ? 1 : hash;
+    }
+
+    private long bucket(long hash) {
+        //The upper bits are mixed better by FNV-1a.
+        return offset + CACHE_LINE + ((hash >>> 32) & (buckets - 1)) * BUCKET_SIZE;
+    }
+
+    private static long entry(long bucket, int way) {
+        return bucket + CACHE_LINE + way * ENTRY_SIZE;
+    }
+
+    /**
+     * returns the maximum of key length + value length of an entry.
+     */
+    public int getMaxEntrySize() {
+        return allocator.getMaxBlockSize();
+    }
+
+    /**
+     * returns a copy of the value of the key or null if it is not cached.
+     */
+    public byte[] get(byte[] key) {
+        long hash = hash(key);
+        long bucket = bucket(hash);
+        NativeMemory mem = memory.getMemory();
+        for (int way = 0; way < WAYS; way++) {
+            long entry = entry(bucket, way);
+            if (mem.readLong(entry + HASH) != hash) {
+                continue;
+            }
+
+            byte[] value = read(mem, entry, hash, key);
+            if (value != null) {
+                reference(mem, bucket, way);
+                return value;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Copies the value if the entry holds the key, retries while a writer modifies the entry.
+     */
+    private byte[] read(NativeMemory mem, long entry, long hash, byte[] key) {
+        for (int i = 0; i < READ_RETRIES; i++) {
+            long sequence = mem.readLong(entry + SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Backoff.pause(i);
+                continue;
+            }
+
+            long block = mem.readLong(entry + BLOCK);
+            int keyLength = mem.readInt(entry + KEY_LENGTH);
+            int valueLength = mem.readInt(entry + VALUE_LENGTH);
+            if (mem.readLong(entry + HASH) != hash || keyLength != key.length || valueLength < 0
+                    || (long) keyLength + valueLength > allocator.getMaxBlockSize()) {
+                if (mem.readLong(entry + SEQUENCE) == sequence) {
+                    return null;
+                }
+                continue;
+            }
+
+            //The block may be reused by another entry while it is copied, the sequence check below detects that.
+            byte[] stored = new byte[keyLength];
+            byte[] value = new byte[valueLength];
+            mem.read(block, stored, 0, keyLength);
+            mem.read(block + keyLength, value, 0, valueLength);
+            if (mem.readLong(entry + SEQUENCE) != sequence) {
+                continue;
+            }
+
+            return Arrays.equals(stored, key) ? value : null;
+        }
+
+        //Treated as a miss rather than waiting for a writer.
+        return null;
+    }
+
+    private static void reference(NativeMemory mem, long bucket, int way) {
+        int bit = 1 << way;
+        while (true) {
+            int current = mem.readInt(bucket + REFERENCED);
+            //Hot entries are not written again so their bucket line is not bounced between peers on every hit.
+            if ((current & bit) != 0 || mem.compareAndSet(bucket + REFERENCED, current, current | bit)) {
+                return;
+            }
+        }
+    }
+
+    private static void unreference(NativeMemory mem, long bucket, int way) {
+        int bit = 1 << way;
+        while (true) {
+            int current = mem.readInt(bucket + REFERENCED);
+            if ((current & bit) == 0 || mem.compareAndSet(bucket + REFERENCED, current, current & ~bit)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Caches the value under the key and replaces a previous value. Evicts an entry of the bucket of the key if it is full.
+     * If the allocator is exhausted then one entry of the bucket whose block has the same size is evicted to free a block.
+     * returns false if key and value exceed getMaxEntrySize or no block could be allocated even after evicting.
+     */
+    public boolean put(byte[] key, byte[] value) {
+        int size = key.length + value.length;
+        if (size == 0 || size > allocator.getMaxBlockSize()) {
+            return false;
+        }
+
+        long hash = hash(key);
+        long bucket = bucket(hash);
+        NativeMemory mem = memory.getMemory();
+
+        long block = allocator.allocate(size);
+        if (block == -1) {
+            //Blocks are never returned to the arena so only an entry of the same size class frees a block that fits.
+            lock(mem, bucket);
+            try {
+                int victim = victim(mem, bucket, allocator.blockSize(size));
+                if (victim != -1) {
+                    clearEntry(mem, bucket, victim);
+                }
+            } finally {
+                unlock(mem, bucket);
+            }
+
+            //Another peer may take the freed block first.
+            block = allocator.allocate(size);
+        }
+
+        if (block == -1) {
+            return false;
+        }
+
+        mem.write(block, key);
+        mem.write(block + key.length, value);
+
+        lock(mem, bucket);
+        try {
+            int way = find(mem, bucket, hash, key);
+            if (way == -1) {
+                way = victim(mem, bucket);
+            }
+
+            long entry = entry(bucket, way);
+            long previous = mem.readLong(entry + HASH) == 0 ? -1 : mem.readLong(entry + BLOCK);
+            int previousSize = mem.readInt(entry + KEY_LENGTH) + mem.readInt(entry + VALUE_LENGTH);
+            long sequence = mem.readLong(entry + SEQUENCE);
+            mem.write(entry + SEQUENCE, sequence + 1);
+            mem.write(entry + BLOCK, block);
+            mem.write(entry + KEY_LENGTH, key.length);
+            mem.write(entry + VALUE_LENGTH, value.length);
+            mem.write(entry + HASH, hash);
+            mem.write(entry + SEQUENCE, sequence + 2);
+            //A new entry starts without a reference so it is evicted first unless it is read.
+            unreference(mem, bucket, way);
+            if (previous != -1) {
+                allocator.free(previous, previousSize);
+            }
+        } finally {
+            unlock(mem, bucket);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the key. returns false if it was not cached.
+     */
+    public boolean remove(byte[] key) {
+        long hash = hash(key);
+        long bucket = bucket(hash);
+        NativeMemory mem = memory.getMemory();
+        lock(mem, bucket);
+        try {
+            int way = find(mem, bucket, hash, key);
+            if (way == -1) {
+                return false;
+            }
+
+            clearEntry(mem, bucket, way);
+            return true;
+        } finally {
+            unlock(mem, bucket);
+        }
+    }
+
+    /**
+     * returns the way that holds the key or -1. Must hold the lock of the bucket.
+     */
+    private int find(NativeMemory mem, long bucket, long hash, byte[] key) {
+        for (int way = 0; way < WAYS; way++) {
+            long entry = entry(bucket, way);
+            if (mem.readLong(entry + HASH) == hash && read(mem, entry, hash, key) != null) {
+                return way;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * returns an empty way or advances the CLOCK hand to the first way without reference. Must hold the lock of the bucket.
+     */
+    private int victim(NativeMemory mem, long bucket) {
+        for (int way = 0; way < WAYS; way++) {
+            if (mem.readLong(entry(bucket, way) + HASH) == 0) {
+                return way;
+            }
+        }
+
+        int hand = mem.readInt(bucket + HAND);
+        while (true) {
+            int way = hand % WAYS;
+            hand = (hand + 1) % WAYS;
+            if ((mem.readInt(bucket + REFERENCED) & (1 << way)) == 0) {
+                mem.write(bucket + HAND, hand);
+                return way;
+            }
+
+            unreference(mem, bucket, way);
+        }
+    }
+
+    /**
+     * returns the first way without reference that the CLOCK hand reaches among the entries whose block has the given size
+     * or -1 if there is none. Must hold the lock of the bucket.
+     */
+    private int victim(NativeMemory mem, long bucket, int blockSize) {
+        int hand = mem.readInt(bucket + HAND);
+        //The first round clears the references so the second round finds a way if there is any.
+        for (int i = 0; i < 2 * WAYS; i++) {
+            int way = (hand + i) % WAYS;
+            long entry = entry(bucket, way);
+            if (mem.readLong(entry + HASH) == 0
+                    || allocator.blockSize(mem.readInt(entry + KEY_LENGTH) + mem.readInt(entry + VALUE_LENGTH)) != blockSize) {
+                continue;
+            }
+
+            if ((mem.readInt(bucket + REFERENCED) & (1 << way)) == 0) {
+                mem.write(bucket + HAND, (way + 1) % WAYS);
+                return way;
+            }
+
+            unreference(mem, bucket, way);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Empties the entry and frees its block. Must hold the lock of the bucket.
+     */
+    private void clearEntry(NativeMemory mem, long bucket, int way) {
+        long entry = entry(bucket, way);
+        long block = mem.readLong(entry + BLOCK);
+        int size = mem.readInt(entry + KEY_LENGTH) + mem.readInt(entry + VALUE_LENGTH);
+        long sequence = mem.readLong(entry + SEQUENCE);
+        mem.write(entry + SEQUENCE, sequence + 1);
+        mem.write(entry + HASH, 0L);
+        mem.write(entry + SEQUENCE, sequence + 2);
+        unreference(mem, bucket, way);
+        allocator.free(block, size);
+    }
+
+    private static void lock(NativeMemory mem, long bucket) {
+        for (int i = 0; !mem.compareAndSet(bucket + LOCK, 0, 1); i++) {
+            Backoff.pause(i);
+        }
+    }
+
+    private static void unlock(NativeMemory mem, long bucket) {
+        mem.write(bucket + LOCK, 0);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
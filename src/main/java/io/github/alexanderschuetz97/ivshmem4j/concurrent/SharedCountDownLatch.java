@@ -0,0 +1,97 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Count down latch inside a shared memory that can be used by several peers.
+ * The region counts the arrivals up from zero so it needs no initialization by a single peer.
+ * The peer whose count down opens the latch wakes all parked peers.
+ */
+public class SharedCountDownLatch {
+
+    private static final int MAGIC = 0x4C415443;
+
+    private final DoorbellParking parking;
+    private final long offset;
+    private final long count;
+    private final long arrived;
+    private final WaiterTable waiters;
+
+    private final WaiterTable.WaitCondition open = new WaiterTable.WaitCondition() {
+        @Override
+        public boolean isSatisfied() {
+            return getCount() == 0;
+        }
+    };
+
+    public static long size() {
+        return 2 * CACHE_LINE + SharedRegion.align(WaiterTable.SIZE);
+    }
+
+    public SharedCountDownLatch(DoorbellParking parking, long offset, long count) {
+        this.parking = Objects.requireNonNull(parking);
+        if (count <= 0) {
+            throw new IllegalArgumentException("count");
+        }
+
+        this.offset = offset;
+        this.count = count;
+        this.arrived = offset + CACHE_LINE;
+        this.waiters = new WaiterTable(parking, offset + 2 * CACHE_LINE);
+
+        NativeMemory memory = parking.getMemory().getMemory();
+        SharedRegion.checkRegion(memory, offset, size());
+        SharedRegion.attach(memory, offset, MAGIC, count);
+    }
+
+    public void countDown() {
+        long current = parking.getMemory().getMemory().getAndAdd(arrived, 1L) + 1;
+        if (current == count) {
+            waiters.wakeAll();
+        }
+    }
+
+    public long getCount() {
+        return Math.max(0, count - parking.getMemory().getMemory().readLong(arrived));
+    }
+
+    public void await() throws InterruptedException {
+        waiters.await(open, Long.MAX_VALUE);
+    }
+
+    /**
+     * returns false if the latch did not open before the timeout elapsed.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return waiters.await(open, unit.toNanos(timeout));
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
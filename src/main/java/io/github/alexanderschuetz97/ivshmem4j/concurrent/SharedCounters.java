@@ -0,0 +1,272 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Table of 64 bit counters with a label directory inside a shared memory.
+ * Every counter has one stripe per participant and each stripe is on its own cache line, so incrementing a counter
+ * never bounces a cache line between participants. Reading a counter sums all stripes.
+ * <p>
+ * Layout: a header cache line, capacity label entries of 64 bytes and capacity * stripes counter values of 64 bytes.
+ * The region must be zero when it is used for the first time.
+ * <p>
+ * A label entry is claimed before its label is written. A claim that makes no progress for one second is considered to belong
+ * to a participant that died and the entry is abandoned, the label is then allocated at a later entry. A participant that was
+ * only paused notices this when it tries to publish its label and moves on as well. Every abandoned entry reduces the capacity by one.
+ */
+public class SharedCounters {
+
+    private static final int MAGIC = 0x434E5452;
+
+    /**
+     * Maximum length of a label in bytes when encoded as UTF-8.
+     */
+    public static final int MAX_LABEL_LENGTH = 56;
+
+    private static final int FREE = 0;
+    private static final int CLAIMED = 1;
+    private static final int READY = 2;
+    private static final int ABANDONED = 3;
+
+    private static final long CLAIM_TIMEOUT_NANOS = 1_000_000_000L;
+
+    private final IvshmemMemory memory;
+    private final long offset;
+    private final int capacity;
+    private final int stripes;
+    private final int stripe;
+    private final long labels;
+    private final long values;
+
+    /**
+     * returns the size in bytes of a region with the given capacity and amount of stripes.
+     */
+    public static long size(int capacity, int stripes) {
+        return CACHE_LINE + (long) capacity * CACHE_LINE + (long) capacity * stripes * CACHE_LINE;
+    }
+
+    /**
+     * @param capacity maximum amount of counters.
+     * @param stripes maximum amount of participants. All participants must use the same capacity and stripes.
+     * @param stripe the stripe of this participant. Each participant must use a different stripe.
+     *               For ivshmem-doorbell the own peer id is a natural choice.
+     */
+    public SharedCounters(IvshmemMemory memory, long offset, int capacity, int stripes, int stripe) {
+        this.memory = Objects.requireNonNull(memory);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity");
+        }
+
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes");
+        }
+
+        if (stripe < 0 || stripe >= stripes) {
+            throw new IllegalArgumentException("stripe");
+        }
+
+        this.offset = offset;
+        this.capacity = capacity;
+        this.stripes = stripes;
+        this.stripe = stripe;
+        this.labels = offset + CACHE_LINE;
+        this.values = labels + capacity * CACHE_LINE;
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(capacity, stripes));
+        SharedRegion.attach(mem, offset, MAGIC, capacity, stripes);
+    }
+
+    /**
+     * returns the id of the counter with the given label. The counter is allocated if no participant allocated it yet.
+     * All participants that use the same label get the same counter.
+     */
+    public int counter(String label) {
+        byte[] encoded = label.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length == 0 || encoded.length > MAX_LABEL_LENGTH) {
+            throw new IllegalArgumentException("label must have 1 to " + MAX_LABEL_LENGTH + " bytes");
+        }
+
+        NativeMemory mem = memory.getMemory();
+        //Entries are claimed in order so two participants allocating the same label always meet at the same entry.
+        for (int i = 0; i < capacity; i++) {
+            long entry = labels + i * CACHE_LINE;
+            int state = mem.readInt(entry);
+            if (state == FREE && mem.compareAndSet(entry, FREE, CLAIMED)) {
+                mem.write(entry + 4, encoded.length);
+                mem.write(entry + 8, encoded);
+                if (mem.compareAndSet(entry, CLAIMED, READY)) {
+                    return i;
+                }
+
+                //Another participant considered the claim stale and abandoned the entry.
+                continue;
+            }
+
+            if (awaitReady(mem, entry) && encoded.length == mem.readInt(entry + 4) && label.equals(readLabel(mem, entry))) {
+                return i;
+            }
+        }
+
+        throw new IvshmemException("all " + capacity + " counters are allocated");
+    }
+
+    /**
+     * Waits for a claimed entry to become ready. The clocks of the peers are not comparable so a claim is stale once this
+     * participant observed it for CLAIM_TIMEOUT_NANOS without progress. An entry never becomes free again, so the claim that
+     * is abandoned is always the one that was observed.
+     * returns false if the entry is abandoned.
+     */
+    private boolean awaitReady(NativeMemory mem, long entry) {
+        long start = System.nanoTime();
+        for (int i = 0; ; i++) {
+            int state = mem.readInt(entry);
+            if (state == READY) {
+                return true;
+            }
+
+            if (state == ABANDONED) {
+                return false;
+            }
+
+            if (System.nanoTime() - start > CLAIM_TIMEOUT_NANOS) {
+                mem.compareAndSet(entry, CLAIMED, ABANDONED);
+                continue;
+            }
+
+            Backoff.pause(i);
+        }
+    }
+
+    private String readLabel(NativeMemory mem, long entry) {
+        byte[] encoded = new byte[mem.readInt(entry + 4)];
+        mem.read(entry + 8, encoded, 0, encoded.length);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * returns the label of the counter or null if the counter is not allocated.
+     */
+    public String label(int counter) {
+        checkCounter(counter);
+        NativeMemory mem = memory.getMemory();
+        long entry = labels + counter * CACHE_LINE;
+        if (mem.readInt(entry) != READY) {
+            return null;
+        }
+
+        return readLabel(mem, entry);
+    }
+
+    private long address(int counter, int stripe) {
+        return values + ((long) counter * stripes + stripe) * CACHE_LINE;
+    }
+
+    private void checkCounter(int counter) {
+        if (counter < 0 || counter >= capacity) {
+            throw new IllegalArgumentException("counter");
+        }
+    }
+
+    /**
+     * Adds delta to the own stripe of the counter.
+     */
+    public void add(int counter, long delta) {
+        checkCounter(counter);
+        //The cache line of the stripe is only written by this participant so the atomic add is uncontended.
+        memory.getMemory().getAndAdd(address(counter, stripe), delta);
+    }
+
+    public void increment(int counter) {
+        add(counter, 1);
+    }
+
+    /**
+     * returns the sum of all stripes of the counter.
+     */
+    public long get(int counter) {
+        checkCounter(counter);
+        NativeMemory mem = memory.getMemory();
+        long sum = 0;
+        for (int i = 0; i < stripes; i++) {
+            sum += mem.readLong(address(counter, i));
+        }
+
+        return sum;
+    }
+
+    /**
+     * returns the value of a single stripe of the counter.
+     */
+    public long get(int counter, int stripe) {
+        checkCounter(counter);
+        if (stripe < 0 || stripe >= stripes) {
+            throw new IllegalArgumentException("stripe");
+        }
+
+        return memory.getMemory().readLong(address(counter, stripe));
+    }
+
+    /**
+     * returns the sums of all allocated counters by their label in the order of allocation.
+     */
+    public Map<String, Long> snapshot() {
+        NativeMemory mem = memory.getMemory();
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < capacity; i++) {
+            long entry = labels + i * CACHE_LINE;
+            if (mem.readInt(entry) != READY) {
+                continue;
+            }
+
+            result.put(readLabel(mem, entry), get(i));
+        }
+
+        return result;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public int getStripe() {
+        return stripe;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,285 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Epoch based reclamation for blocks of a SharedAllocator that lock free structures in the shared memory unlink while
+ * other peers may still read them. Readers announce the global epoch in the slot of their participant for the duration
+ * of a read section, which costs one atomic exchange and no lock. An unlinked block is retired with the current epoch and
+ * freed once the global epoch advanced twice, which is only possible after every participant that was inside a read
+ * section has left it.
+ * <p>
+ * Threads of the same participant share its slot. The slot keeps the epoch of the first of them until all of them left,
+ * so overlapping readers delay reclamation but never make it unsafe. Retired blocks are kept in a list of this process
+ * and are lost if it exits before they were freed.
+ * <p>
+ * The RCU style replace swaps a reference word to a new version of a read mostly structure and retires the old one,
+ * synchronize waits until every reader that could still see an old version has left.
+ * <p>
+ * Layout: a header cache line, a line with the global epoch and one line per participant.
+ * A slot contains the announced epoch shifted left by one with the lowest bit set, or 0 outside of a read section.
+ */
+public class SharedEpochReclaimer {
+
+    private static final int MAGIC = 0x45504F43;
+
+    private static final int RECLAIM_INTERVAL = 64;
+
+    private final IvshmemMemory memory;
+    private final SharedAllocator allocator;
+    private final long offset;
+    private final int participants;
+    private final int participant;
+    private final long global;
+    private final long ownSlot;
+
+    private final AtomicInteger readers = new AtomicInteger();
+    private final ReentrantLock slotLock = new ReentrantLock();
+    private final Queue<Retired> retired = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retiredCount = new AtomicInteger();
+
+    private static class Retired {
+        private final long epoch;
+        private final long block;
+        private final int size;
+
+        private Retired(long epoch, long block, int size) {
+            this.epoch = epoch;
+            this.block = block;
+            this.size = size;
+        }
+    }
+
+    public static long size(int participants) {
+        return 2 * CACHE_LINE + participants * CACHE_LINE;
+    }
+
+    /**
+     * @param participants the maximum amount of participants. All participants must use the same value.
+     * @param participant the slot of this participant. Each participant must use a different slot.
+     */
+    public SharedEpochReclaimer(IvshmemMemory memory, long offset, int participants, int participant, SharedAllocator allocator) {
+        this.memory = Objects.requireNonNull(memory);
+        this.allocator = Objects.requireNonNull(allocator);
+        if (participants <= 0) {
+            throw new IllegalArgumentException("participants");
+        }
+
+        if (participant < 0 || participant >= participants) {
+            throw new IllegalArgumentException("participant");
+        }
+
+        this.offset = offset;
+        this.participants = participants;
+        this.participant = participant;
+        this.global = offset + CACHE_LINE;
+        this.ownSlot = slot(participant);
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(participants));
+        SharedRegion.attach(mem, offset, MAGIC, participants);
+    }
+
+    private long slot(int index) {
+        return offset + 2 * CACHE_LINE + index * CACHE_LINE;
+    }
+
+    /**
+     * Starts a read section. Blocks reachable from the structure when this returns stay valid until exit is called.
+     * Read sections may be nested and used by several threads at once.
+     */
+    public void enter() {
+        while (true) {
+            int current = readers.get();
+            if (current == 0) {
+                break;
+            }
+
+            if (readers.compareAndSet(current, current + 1)) {
+                return;
+            }
+        }
+
+        slotLock.lock();
+        try {
+            if (readers.get() == 0) {
+                NativeMemory mem = memory.getMemory();
+                //The exchange orders the announcement before every read of the structure.
+                mem.getAndSet(ownSlot, (mem.readLong(global) << 1) | 1);
+            }
+            readers.incrementAndGet();
+        } finally {
+            slotLock.unlock();
+        }
+    }
+
+    /**
+     * Ends a read section.
+     */
+    public void exit() {
+        while (true) {
+            int current = readers.get();
+            if (current <= 1) {
+                break;
+            }
+
+            if (readers.compareAndSet(current, current - 1)) {
+                return;
+            }
+        }
+
+        slotLock.lock();
+        try {
+            int current = readers.get();
+            if (current <= 0) {
+                throw new IllegalStateException("not inside a read section");
+            }
+
+            if (readers.decrementAndGet() == 0) {
+                memory.getMemory().write(ownSlot, 0L);
+            }
+        } finally {
+            slotLock.unlock();
+        }
+    }
+
+    /**
+     * Frees the block once no reader can see it anymore. The block must already be unreachable for new readers.
+     */
+    public void retire(long block, int size) {
+        allocator.blockSize(size);
+        retired.add(new Retired(memory.getMemory().readLong(global), block, size));
+        if (retiredCount.incrementAndGet() % RECLAIM_INTERVAL == 0) {
+            reclaim();
+        }
+    }
+
+    /**
+     * Tries to advance the global epoch and frees all retired blocks that are safe to free.
+     * returns the amount of blocks that are still waiting.
+     */
+    public int reclaim() {
+        long epoch = tryAdvance();
+        while (true) {
+            Retired next = retired.peek();
+            if (next == null || next.epoch > epoch - 2) {
+                break;
+            }
+
+            if (retired.remove(next)) {
+                allocator.free(next.block, next.size);
+                retiredCount.decrementAndGet();
+            }
+        }
+
+        return retired.size();
+    }
+
+    /**
+     * Advances the global epoch if every participant inside a read section announced the current one.
+     * returns the global epoch.
+     */
+    private long tryAdvance() {
+        NativeMemory mem = memory.getMemory();
+        long epoch = mem.readLong(global);
+        for (int i = 0; i < participants; i++) {
+            long slot = mem.readLong(slot(i));
+            if ((slot & 1) != 0 && slot >>> 1 != epoch) {
+                return epoch;
+            }
+        }
+
+        if (mem.compareAndSet(global, epoch, epoch + 1)) {
+            return epoch + 1;
+        }
+
+        return mem.readLong(global);
+    }
+
+    /**
+     * Atomically replaces the 8 byte reference word at the given offset with the new block and retires the block it
+     * referenced before, unless that was 0. Readers must read the reference inside a read section.
+     * returns the block that was replaced.
+     */
+    public long replace(long reference, long block, int size) {
+        long previous = memory.getMemory().getAndSet(reference, block);
+        if (previous != 0) {
+            retire(previous, size);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Waits until every read section that was active when this was called has ended and frees the blocks that are safe then.
+     * This must not be called inside a read section of this participant. returns false if the timeout elapsed.
+     */
+    public boolean synchronize(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long target = memory.getMemory().readLong(global) + 2;
+        for (int i = 0; tryAdvance() < target; i++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+
+            Backoff.pause(i);
+        }
+
+        reclaim();
+        return true;
+    }
+
+    /**
+     * Clears the slot of a participant that crashed inside a read section, for example from a PeerConnectionListener.
+     * Otherwise the global epoch can not advance anymore.
+     */
+    public void clear(int participant) {
+        if (participant < 0 || participant >= participants) {
+            throw new IllegalArgumentException("participant");
+        }
+
+        memory.getMemory().write(slot(participant), 0L);
+    }
+
+    public int getParticipant() {
+        return participant;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,156 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Address keyed wait and wake up across peers, similar to a futex. Waiters register in a wait queue bucket of a shared
+ * table that is selected by the hash of the address. A waker only interrupts the peers that wait in the bucket of the address.
+ * The bucket also selects one of several doorbell vectors, so a peer that is interrupted only wakes its own threads that
+ * wait on addresses of that vector.
+ * <p>
+ * Layout: a header cache line and one wait queue of 256 bytes per bucket. The region must be zero when it is used
+ * for the first time. The addresses that are waited on can be anywhere in the shared memory.
+ */
+public class SharedFutex implements AutoCloseable {
+
+    private static final int MAGIC = 0x46555458;
+
+    private final IvshmemMemory memory;
+    private final long offset;
+    private final int buckets;
+    private final DoorbellParking[] parkings;
+    private final WaiterTable[] queues;
+
+    public static long size(int buckets) {
+        return CACHE_LINE + buckets * WaiterTable.SIZE;
+    }
+
+    /**
+     * @param buckets amount of wait queues. More buckets lead to less peers that are interrupted for an unrelated address.
+     * @param firstVector the first doorbell vector that is used.
+     * @param vectors the amount of doorbell vectors starting at firstVector. All peers must use the same vectors.
+     */
+    public SharedFutex(IvshmemMemory memory, long offset, int buckets, int firstVector, int vectors) {
+        this.memory = Objects.requireNonNull(memory);
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("buckets");
+        }
+
+        if (firstVector < 0 || vectors <= 0) {
+            throw new IllegalArgumentException("vectors");
+        }
+
+        this.offset = offset;
+        this.buckets = buckets;
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(buckets));
+        SharedRegion.attach(mem, offset, MAGIC, buckets);
+
+        parkings = new DoorbellParking[Math.min(vectors, buckets)];
+        queues = new WaiterTable[buckets];
+        try {
+            for (int i = 0; i < parkings.length; i++) {
+                parkings[i] = new DoorbellParking(memory, firstVector + i);
+            }
+        } catch (RuntimeException exc) {
+            close();
+            throw exc;
+        }
+
+        for (int i = 0; i < buckets; i++) {
+            queues[i] = new WaiterTable(parkings[i % parkings.length], offset + CACHE_LINE + i * WaiterTable.SIZE);
+        }
+    }
+
+    private WaiterTable queue(long address) {
+        long hash = address * 0x9E3779B97F4A7C15L;
+        return queues[(int) ((hash >>> 32) % buckets)];
+    }
+
+    /**
+     * Waits until the 32 bit value at address differs from expected. returns true if it does and false if the timeout
+     * elapsed first. Wakers must change the value before they call wakeAddress.
+     */
+    public boolean waitOnAddress(final long address, final int expected, long timeout, TimeUnit unit) throws InterruptedException {
+        final NativeMemory mem = memory.getMemory();
+        return queue(address).await(new WaiterTable.WaitCondition() {
+            @Override
+            public boolean isSatisfied() {
+                return mem.readInt(address) != expected;
+            }
+        }, unit.toNanos(timeout));
+    }
+
+    /**
+     * Waits until the 64 bit value at address differs from expected. See waitOnAddress for 32 bit values.
+     */
+    public boolean waitOnAddress(final long address, final long expected, long timeout, TimeUnit unit) throws InterruptedException {
+        final NativeMemory mem = memory.getMemory();
+        return queue(address).await(new WaiterTable.WaitCondition() {
+            @Override
+            public boolean isSatisfied() {
+                return mem.readLong(address) != expected;
+            }
+        }, unit.toNanos(timeout));
+    }
+
+    /**
+     * Wakes the waiters of this process and interrupts at most peers other peers that wait on the address or on another
+     * address of the same bucket. returns the amount of interrupted peers.
+     */
+    public int wakeAddress(long address, int peers) {
+        if (peers < 0) {
+            throw new IllegalArgumentException("peers");
+        }
+
+        return queue(address).wake(peers);
+    }
+
+    public int wakeAddress(long address) {
+        return wakeAddress(address, Integer.MAX_VALUE);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public void close() {
+        for (DoorbellParking parking : parkings) {
+            if (parking != null) {
+                parking.close();
+            }
+        }
+    }
+}
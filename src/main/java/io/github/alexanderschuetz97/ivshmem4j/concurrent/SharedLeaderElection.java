@@ -0,0 +1,320 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerConnectionListener;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Lease based leader election among the peers of a shared memory.
+ * The lease word holds the epoch in the upper 48 bits and the leader peer + 1 in the lower 16 bits, 0 means no leader.
+ * Every change of the leader increments the epoch with a compare and set. The leader increments a heartbeat next to the
+ * lease word four times per lease. The other peers compare the heartbeat against their own monotonic clock so the clocks
+ * of different virtual machines do not need to be in sync, and take over once it did not change for a lease.
+ * <p>
+ * If the shared memory knows its peers, like ivshmem-doorbell or after joining a peer registry,
+ * the disconnect of the leader starts a takeover immediately.
+ * isLeader and getEpoch read the lease word, so a leader that was paused for longer than a lease sees the new epoch
+ * and the epoch can be used to fence writes of an old leader. The heartbeat occupies a thread of the executor until the
+ * election is closed.
+ */
+public class SharedLeaderElection implements AutoCloseable {
+
+    private static final int MAGIC = 0x4C454144;
+
+    private static final long PEER_MASK = 0xFFFF;
+
+    /**
+     * Notified about every leader change that this peer observes.
+     */
+    public interface LeaderListener {
+        /**
+         * Called with the new leader or -1 if there is no leader. Leaders of the same epoch are reported only once.
+         */
+        void onLeaderChange(int leader, long epoch);
+    }
+
+    private final IvshmemMemory memory;
+    private final long offset;
+    private final long lease;
+    private final long heartbeat;
+    private final int ownPeer;
+    private final long leaseNanos;
+    private final LeaderListener listener;
+    private final Thread.UncaughtExceptionHandler handler;
+    private final boolean peersKnown;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PeriodicTask ticker;
+    private volatile boolean candidate = true;
+    private boolean closed;
+    //Only accessed while holding the lock.
+    private long observed = -1;
+    private long watched = -1;
+    private long lastBeat;
+    private long lastChange;
+    private long lastTick;
+    private long ownBeat;
+
+    private final PeerConnectionListener disconnects = new PeerConnectionListener() {
+        @Override
+        public void onConnect(int peerID, int connectedVectors) {
+            //NOOP
+        }
+
+        @Override
+        public void onDisconnect(int peerID) {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+
+                long current = memory.getMemory().readLong(lease);
+                if (leader(current) == peerID) {
+                    takeOver(memory.getMemory(), current);
+                }
+            } catch (Throwable exc) {
+                handler.uncaughtException(Thread.currentThread(), exc);
+            } finally {
+                lock.unlock();
+            }
+        }
+    };
+
+    public static long size() {
+        return 2 * CACHE_LINE;
+    }
+
+    public SharedLeaderElection(IvshmemMemory memory, long offset, long leaseMillis, LeaderListener listener, Executor executor, Thread.UncaughtExceptionHandler handler) {
+        this(memory, offset, memory.getOwnPeerID(), leaseMillis, listener, executor, handler);
+    }
+
+    /**
+     * Joins the election as the given peer, for shared memories that do not know their own peer id.
+     * Every peer must use the same lease.
+     */
+    public SharedLeaderElection(IvshmemMemory memory, long offset, int ownPeer, long leaseMillis, LeaderListener listener, Executor executor, Thread.UncaughtExceptionHandler handler) {
+        this.memory = Objects.requireNonNull(memory);
+        this.listener = Objects.requireNonNull(listener);
+        this.handler = Objects.requireNonNull(handler);
+        Objects.requireNonNull(executor);
+        if (ownPeer < 0 || ownPeer >= PEER_MASK) {
+            throw new IvshmemException("peer " + ownPeer + " is not smaller than " + PEER_MASK);
+        }
+
+        if (leaseMillis < 4) {
+            throw new IllegalArgumentException("leaseMillis");
+        }
+
+        this.offset = offset;
+        this.lease = offset + CACHE_LINE;
+        this.heartbeat = lease + 8;
+        this.ownPeer = ownPeer;
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size());
+        SharedRegion.attach(mem, offset, MAGIC, leaseMillis);
+
+        peersKnown = memory.knowsOtherPeers();
+        if (peersKnown) {
+            memory.registerPeerConnectionListener(disconnects);
+        }
+
+        lastTick = lastChange = System.nanoTime();
+        ticker = new PeriodicTask(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, leaseNanos / 4);
+
+        try {
+            executor.execute(ticker);
+        } catch (RuntimeException exc) {
+            if (peersKnown) {
+                memory.removePeerConnectionListener(disconnects);
+            }
+            throw exc;
+        }
+    }
+
+    private static int leader(long word) {
+        return (int) (word & PEER_MASK) - 1;
+    }
+
+    private static long epoch(long word) {
+        return word >>> 16;
+    }
+
+    private void tick() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            NativeMemory mem = memory.getMemory();
+            long now = System.nanoTime();
+            if (now - lastTick > leaseNanos) {
+                //This peer was paused for longer than a lease, the leader gets a new lease instead of being replaced.
+                lastChange = now;
+            }
+            lastTick = now;
+
+            long current = mem.readLong(lease);
+            if (current != watched) {
+                //Every new lease starts with a full lease duration.
+                watched = current;
+                lastBeat = mem.readLong(heartbeat);
+                lastChange = now;
+            }
+
+            int leader = leader(current);
+            if (leader == ownPeer) {
+                mem.write(heartbeat, ++ownBeat);
+            } else if (leader == -1) {
+                takeOver(mem, current);
+            } else {
+                long beat = mem.readLong(heartbeat);
+                if (beat != lastBeat) {
+                    lastBeat = beat;
+                    lastChange = now;
+                } else if (now - lastChange > leaseNanos) {
+                    takeOver(mem, current);
+                }
+            }
+
+            notifyListener(mem.readLong(lease));
+        } catch (Throwable exc) {
+            handler.uncaughtException(Thread.currentThread(), exc);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the expected lease word with a lease for this peer or a vacant lease if this peer is not a candidate.
+     * Only one of the peers that saw the same expired lease succeeds.
+     */
+    private void takeOver(NativeMemory mem, long expected) {
+        long next = candidate ? ((epoch(expected) + 1) << 16) | (ownPeer + 1) : epoch(expected) << 16;
+        if (next == expected) {
+            return;
+        }
+
+        if (mem.compareAndSet(lease, expected, next) && candidate) {
+            ownBeat = mem.readLong(heartbeat);
+            mem.write(heartbeat, ++ownBeat);
+        }
+
+        notifyListener(mem.readLong(lease));
+    }
+
+    private void notifyListener(long current) {
+        if (current == observed) {
+            return;
+        }
+
+        //A vacant lease keeps the epoch of the previous leader so it is reported once with that epoch.
+        observed = current;
+        listener.onLeaderChange(leader(current), epoch(current));
+    }
+
+    /**
+     * returns the current leader or -1 if there is none.
+     */
+    public int getLeader() {
+        return leader(memory.getMemory().readLong(lease));
+    }
+
+    /**
+     * returns the epoch of the current leader. It is incremented on every leader change.
+     */
+    public long getEpoch() {
+        return epoch(memory.getMemory().readLong(lease));
+    }
+
+    public boolean isLeader() {
+        return getLeader() == ownPeer;
+    }
+
+    /**
+     * Gives up the leadership if this peer is the leader and stops competing for it until campaign is called.
+     */
+    public void resign() {
+        lock.lock();
+        try {
+            candidate = false;
+            NativeMemory mem = memory.getMemory();
+            long current = mem.readLong(lease);
+            if (leader(current) == ownPeer) {
+                takeOver(mem, current);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Competes for the leadership again after resign. The leadership is taken on the next tick if there is no leader.
+     */
+    public void campaign() {
+        candidate = true;
+    }
+
+    public int getOwnPeer() {
+        return ownPeer;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Resigns and stops the heartbeat. This must be called before the memory is closed.
+     */
+    @Override
+    public void close() {
+        if (peersKnown) {
+            memory.removePeerConnectionListener(disconnects);
+        }
+
+        resign();
+        lock.lock();
+        try {
+            closed = true;
+            ticker.stop();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
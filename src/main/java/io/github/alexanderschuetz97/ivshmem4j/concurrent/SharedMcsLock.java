@@ -0,0 +1,180 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * MCS queue lock inside a shared memory. Every participant owns one queue node on its own cache line and spins only on
+ * that node while it waits, the previous owner hands the lock over by writing to the node of its successor.
+ * Threads of the same participant first queue on a local lock so only one thread per participant uses the node.
+ * The lock is not reentrant, the node of a participant can only be queued once.
+ * <p>
+ * Layout: a header cache line, a line with the tail of the queue and one line per node. A node contains the successor
+ * (node index + 1, 0 for none) and the locked flag.
+ */
+public class SharedMcsLock {
+
+    private static final int MAGIC = 0x4D43534C;
+
+    private final IvshmemMemory memory;
+    private final long offset;
+    private final int nodes;
+    private final int node;
+    private final long tail;
+    private final long ownNode;
+    private final ReentrantLock localLock = new ReentrantLock();
+
+    public static long size(int nodes) {
+        return 2 * CACHE_LINE + nodes * CACHE_LINE;
+    }
+
+    /**
+     * @param nodes the maximum amount of participants. All participants must use the same value.
+     * @param node the node of this participant. Each participant must use a different node.
+     */
+    public SharedMcsLock(IvshmemMemory memory, long offset, int nodes, int node) {
+        this.memory = Objects.requireNonNull(memory);
+        if (nodes <= 0) {
+            throw new IllegalArgumentException("nodes");
+        }
+
+        if (node < 0 || node >= nodes) {
+            throw new IllegalArgumentException("node");
+        }
+
+        this.offset = offset;
+        this.nodes = nodes;
+        this.node = node;
+        this.tail = offset + CACHE_LINE;
+        this.ownNode = node(node + 1);
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(nodes));
+        SharedRegion.attach(mem, offset, MAGIC, nodes);
+    }
+
+    /**
+     * returns the address of the node with the given id (node index + 1).
+     */
+    private long node(int id) {
+        return offset + 2 * CACHE_LINE + (id - 1) * CACHE_LINE;
+    }
+
+    public void lock() {
+        checkNotHeld();
+        localLock.lock();
+        try {
+            NativeMemory mem = memory.getMemory();
+            mem.write(ownNode, 0);
+            mem.write(ownNode + 4, 1);
+            int predecessor = mem.getAndSet(tail, node + 1);
+            if (predecessor != 0) {
+                mem.write(node(predecessor), node + 1);
+                for (int i = 0; mem.readInt(ownNode + 4) != 0; i++) {
+                    Backoff.pause(i);
+                }
+            }
+        } catch (RuntimeException | Error exc) {
+            localLock.unlock();
+            throw exc;
+        }
+    }
+
+    /**
+     * Acquires the lock only if no other participant holds or waits for it.
+     */
+    public boolean tryLock() {
+        checkNotHeld();
+        if (!localLock.tryLock()) {
+            return false;
+        }
+
+        boolean success = false;
+        try {
+            NativeMemory mem = memory.getMemory();
+            mem.write(ownNode, 0);
+            mem.write(ownNode + 4, 0);
+            success = mem.compareAndSet(tail, 0, node + 1);
+            return success;
+        } finally {
+            if (!success) {
+                localLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The local lock is reentrant but queueing the own node again would link it to itself.
+     */
+    private void checkNotHeld() {
+        if (localLock.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("already locked by this thread");
+        }
+    }
+
+    public void unlock() {
+        if (!localLock.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("not locked by this thread");
+        }
+
+        try {
+            NativeMemory mem = memory.getMemory();
+            int successor = mem.readInt(ownNode);
+            if (successor == 0) {
+                if (mem.compareAndSet(tail, node + 1, 0)) {
+                    return;
+                }
+
+                //a successor swapped the tail but did not link itself yet
+                for (int i = 0; (successor = mem.readInt(ownNode)) == 0; i++) {
+                    Backoff.pause(i);
+                }
+            }
+
+            mem.write(node(successor) + 4, 0);
+        } finally {
+            localLock.unlock();
+        }
+    }
+
+    public boolean isLocked() {
+        return memory.getMemory().readInt(tail) != 0;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    public int getNode() {
+        return node;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
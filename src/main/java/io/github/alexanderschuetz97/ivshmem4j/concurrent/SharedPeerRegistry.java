@@ -0,0 +1,396 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerConnectionListener;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerInfo;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerRegistryOptions;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Registry of peers inside a shared memory for shared memories that do not know their peers, like ivshmem-plain or the
+ * Windows driver. Every peer claims a slot with a random token, publishes its capabilities and identity and increments
+ * a heartbeat a few times per lease. Peers only compare heartbeats against their own clock so the clocks of different
+ * virtual machines do not need to be in sync. A peer whose heartbeat did not change for a lease is removed by the first
+ * peer that notices it, closing the registry removes the own slot immediately. The heartbeat occupies a thread of the
+ * executor until the registry is closed.
+ */
+public class SharedPeerRegistry {
+
+    private static final int MAGIC = 0x50454552;
+
+    //Layout of a slot, the identity fills the rest of the cache line.
+    private static final long TOKEN = 0;
+    private static final long PUBLISHED = 8;
+    private static final long HEARTBEAT = 16;
+    private static final long CAPABILITIES = 24;
+    private static final long IDENTITY_LENGTH = 32;
+    private static final long IDENTITY = 36;
+
+    private final IvshmemMemory memory;
+    private final long offset;
+    private final int slots;
+    private final long capabilities;
+    private final byte[] identity;
+    private final long leaseNanos;
+    private final long tickNanos;
+    private final PeerConnectionListener listener;
+    private final Thread.UncaughtExceptionHandler handler;
+    private final long token;
+    private final int ownPeer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PeriodicTask ticker;
+    private final Set<Integer> connected = new ConcurrentSkipListSet<>();
+    //Only accessed by tick while holding the lock.
+    private final long[] knownTokens;
+    private final long[] lastBeats;
+    private final long[] lastChanges;
+    private long lastTick;
+    private long heartbeat;
+    private volatile boolean lost;
+    private boolean closed;
+
+    public static long size(int slots) {
+        return CACHE_LINE + slots * CACHE_LINE;
+    }
+
+    /**
+     * Joins the registry with the own peer id of the memory if it supports interrupts, otherwise any free slot is claimed.
+     */
+    public SharedPeerRegistry(IvshmemMemory memory, PeerRegistryOptions options, PeerConnectionListener listener, Executor executor, Thread.UncaughtExceptionHandler handler) {
+        this(memory, options, memory.supportsInterrupts() ? memory.getOwnPeerID() : -1, listener, executor, handler);
+    }
+
+    /**
+     * Joins the registry as the given peer or claims any free slot if ownPeer is -1. If the slot of the peer is still held by
+     * an earlier instance of the same peer then this waits until its lease expired.
+     */
+    public SharedPeerRegistry(IvshmemMemory memory, PeerRegistryOptions options, int ownPeer, PeerConnectionListener listener, Executor executor, Thread.UncaughtExceptionHandler handler) {
+        this.memory = Objects.requireNonNull(memory);
+        this.listener = Objects.requireNonNull(listener);
+        this.handler = Objects.requireNonNull(handler);
+        Objects.requireNonNull(executor);
+        this.offset = options.getOffset();
+        this.slots = options.getSlots();
+        this.capabilities = options.getCapabilities();
+        this.identity = options.getIdentity().getBytes(StandardCharsets.UTF_8);
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(options.getLeaseMillis());
+        this.tickNanos = leaseNanos / 4;
+        this.knownTokens = new long[slots];
+        this.lastBeats = new long[slots];
+        this.lastChanges = new long[slots];
+        if (ownPeer < -1 || ownPeer >= slots) {
+            throw new IvshmemException("peer " + ownPeer + " is not smaller than " + slots);
+        }
+
+        long random;
+        do {
+            random = ThreadLocalRandom.current().nextLong();
+        } while (random == 0);
+        this.token = random;
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(slots));
+        SharedRegion.attach(mem, offset, MAGIC, slots, options.getLeaseMillis());
+
+        try {
+            this.ownPeer = claim(mem, ownPeer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IvshmemException("interrupted while joining the peer registry", e);
+        }
+
+        publish(mem);
+        lastTick = System.nanoTime();
+        ticker = new PeriodicTask(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, tickNanos);
+
+        try {
+            executor.execute(ticker);
+        } catch (RuntimeException exc) {
+            mem.compareAndSet(slot(this.ownPeer) + TOKEN, token, 0L);
+            throw exc;
+        }
+    }
+
+    private long slot(int peer) {
+        return offset + CACHE_LINE + peer * CACHE_LINE;
+    }
+
+    /**
+     * Claims a free slot or takes over a slot whose heartbeat did not change for a lease.
+     */
+    private int claim(NativeMemory mem, int peer) throws InterruptedException {
+        int from = peer == -1 ? 0 : peer;
+        int to = peer == -1 ? slots : peer + 1;
+        for (int i = from; i < to; i++) {
+            if (mem.compareAndSet(slot(i) + TOKEN, 0L, token)) {
+                return i;
+            }
+        }
+
+        long[] tokens = new long[slots];
+        long[] beats = new long[slots];
+        for (int i = from; i < to; i++) {
+            tokens[i] = mem.readLong(slot(i) + TOKEN);
+            beats[i] = mem.readLong(slot(i) + HEARTBEAT);
+        }
+
+        TimeUnit.NANOSECONDS.sleep(leaseNanos + tickNanos);
+
+        for (int i = from; i < to; i++) {
+            if (mem.readLong(slot(i) + HEARTBEAT) == beats[i] && mem.compareAndSet(slot(i) + TOKEN, tokens[i], token)) {
+                return i;
+            }
+        }
+
+        if (peer != -1) {
+            throw new IvshmemException("peer " + peer + " is already registered");
+        }
+
+        throw new IvshmemException("peer registry is full");
+    }
+
+    private void publish(NativeMemory mem) {
+        long slot = slot(ownPeer);
+        mem.write(slot + HEARTBEAT, ++heartbeat);
+        mem.write(slot + CAPABILITIES, capabilities);
+        mem.write(slot + IDENTITY_LENGTH, identity.length);
+        mem.write(slot + IDENTITY, identity);
+        //Other peers ignore the slot until the token is published so they never see a partial identity.
+        mem.write(slot + PUBLISHED, token);
+    }
+
+    private void tick() {
+        lock.lock();
+        try {
+            if (closed || lost) {
+                return;
+            }
+
+            NativeMemory mem = memory.getMemory();
+            long now = System.nanoTime();
+            if (now - lastTick > leaseNanos) {
+                //This peer was paused for longer than a lease, the other peers get a new lease instead of being removed.
+                for (int i = 0; i < slots; i++) {
+                    lastChanges[i] = now;
+                }
+            }
+            lastTick = now;
+
+            if (!beat(mem)) {
+                lose();
+                return;
+            }
+
+            for (int i = 0; i < slots; i++) {
+                if (i != ownPeer) {
+                    observe(mem, i, now);
+                }
+            }
+        } catch (Throwable exc) {
+            handler.uncaughtException(Thread.currentThread(), exc);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * returns false if the own slot was claimed by another peer.
+     */
+    private boolean beat(NativeMemory mem) {
+        long slot = slot(ownPeer);
+        if (mem.readLong(slot + TOKEN) == token) {
+            mem.write(slot + HEARTBEAT, ++heartbeat);
+            return true;
+        }
+
+        //Another peer removed this peer because it was paused for longer than a lease. The slot is claimed again if it is still free.
+        if (mem.compareAndSet(slot + TOKEN, 0L, token)) {
+            publish(mem);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * The slot now belongs to another peer so this peer must not beat or remove anyone. Every peer is disconnected,
+     * this peer last, and the heartbeat stops.
+     */
+    private void lose() {
+        lost = true;
+        ticker.stop();
+        for (int i = 0; i < slots; i++) {
+            if (knownTokens[i] != 0) {
+                disconnect(i);
+            }
+        }
+
+        listener.onDisconnect(ownPeer);
+        throw new IvshmemException("slot of peer " + ownPeer + " was claimed by another peer");
+    }
+
+    private void observe(NativeMemory mem, int peer, long now) {
+        long slot = slot(peer);
+        long current = mem.readLong(slot + TOKEN);
+        long known = knownTokens[peer];
+        if (current == 0 || mem.readLong(slot + PUBLISHED) != current) {
+            if (known != 0) {
+                disconnect(peer);
+            }
+            return;
+        }
+
+        long beat = mem.readLong(slot + HEARTBEAT);
+        if (current != known) {
+            if (known != 0) {
+                disconnect(peer);
+            }
+
+            knownTokens[peer] = current;
+            lastBeats[peer] = beat;
+            lastChanges[peer] = now;
+            connected.add(peer);
+            //There are no vectors of a peer of the registry that this memory could interrupt.
+            listener.onConnect(peer, 0);
+            return;
+        }
+
+        if (beat != lastBeats[peer]) {
+            lastBeats[peer] = beat;
+            lastChanges[peer] = now;
+            return;
+        }
+
+        if (now - lastChanges[peer] > leaseNanos) {
+            mem.compareAndSet(slot + TOKEN, current, 0L);
+            disconnect(peer);
+        }
+    }
+
+    private void disconnect(int peer) {
+        knownTokens[peer] = 0;
+        connected.remove(peer);
+        listener.onDisconnect(peer);
+    }
+
+    /**
+     * returns the slot that this peer claimed or -1 if the slot was lost.
+     */
+    public int getOwnPeer() {
+        return lost ? -1 : ownPeer;
+    }
+
+    /**
+     * returns true if another peer claimed the own slot after this peer was removed. The registry does nothing once this
+     * happened, it has to be closed and joined again.
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * returns the other peers whose lease did not expire.
+     */
+    public Collection<Integer> getPeers() {
+        return Collections.unmodifiableCollection(new ArrayList<>(connected));
+    }
+
+    public boolean isConnected(int peer) {
+        return connected.contains(peer);
+    }
+
+    /**
+     * returns what the peer published or null if it is not connected.
+     */
+    public PeerInfo getInfo(int peer) {
+        if (peer < 0 || peer >= slots) {
+            throw new IllegalArgumentException("peer " + peer);
+        }
+
+        if (peer == ownPeer ? lost : !connected.contains(peer)) {
+            return null;
+        }
+
+        NativeMemory mem = memory.getMemory();
+        long slot = slot(peer);
+        long current = mem.readLong(slot + TOKEN);
+        int length = mem.readInt(slot + IDENTITY_LENGTH);
+        if (current == 0 || length < 0 || length > PeerRegistryOptions.MAX_IDENTITY_LENGTH) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        mem.read(slot + IDENTITY, bytes, 0, length);
+        long caps = mem.readLong(slot + CAPABILITIES);
+        if (mem.readLong(slot + TOKEN) != current) {
+            //The slot was claimed by a new peer while reading
+            return null;
+        }
+
+        return new PeerInfo(peer, caps, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Stops the heartbeat and frees the own slot so other peers notice the disconnect on their next tick.
+     * This must be called before the memory is closed.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            ticker.stop();
+            memory.getMemory().compareAndSet(slot(ownPeer) + TOKEN, token, 0L);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
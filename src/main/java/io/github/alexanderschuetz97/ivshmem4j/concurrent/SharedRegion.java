@@ -0,0 +1,75 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Arrays;
+
+/**
+ * Layout helpers shared by all structures that live inside a region of a shared memory.
+ */
+class SharedRegion {
+
+    /**
+     * Size of a cache line on amd64/i386. Words that are written by different peers are placed on different cache lines.
+     */
+    static final long CACHE_LINE = 64;
+
+    private SharedRegion() {
+
+    }
+
+    static long align(long value) {
+        return (value + CACHE_LINE - 1) & ~(CACHE_LINE - 1);
+    }
+
+    /**
+     * Checks that the region fits into the memory and starts on a cache line.
+     */
+    static void checkRegion(NativeMemory memory, long offset, long size) {
+        if (offset < 0 || offset % CACHE_LINE != 0) {
+            throw new IllegalArgumentException("offset must be a positive multiple of " + CACHE_LINE);
+        }
+
+        if (offset + size > memory.size() || offset + size < 0) {
+            throw new IvshmemException("region at " + offset + " with size " + size + " exceeds memory size " + memory.size());
+        }
+    }
+
+    /**
+     * Formats the header word at offset for the given magic number and parameters or verifies that another peer already
+     * formatted it with the same ones. Every other word of the region must be zero initially, which is the case for a new
+     * shared memory file.
+     */
+    static void attach(NativeMemory memory, long offset, int magic, long... parameters) {
+        long header = ((long) magic << 32) | (Arrays.hashCode(parameters) & 0xFFFFFFFFL);
+        if (memory.compareAndSet(offset, 0L, header)) {
+            return;
+        }
+
+        long current = memory.readLong(offset);
+        if (current != header) {
+            throw new IvshmemException("region at " + offset + " was formatted with a different layout " + Long.toHexString(current));
+        }
+    }
+}
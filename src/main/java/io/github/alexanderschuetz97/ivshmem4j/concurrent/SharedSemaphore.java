@@ -0,0 +1,136 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Counting semaphore inside a shared memory that can be used by several peers.
+ * The region counts the permits in use up from zero so it needs no initialization by a single peer.
+ * Permits are not fair, a peer that spins may acquire a released permit before a parked peer wakes up.
+ */
+public class SharedSemaphore {
+
+    private static final int MAGIC = 0x53454D41;
+
+    private final DoorbellParking parking;
+    private final long offset;
+    private final long permits;
+    private final long used;
+    private final WaiterTable waiters;
+
+    public static long size() {
+        return 2 * CACHE_LINE + SharedRegion.align(WaiterTable.SIZE);
+    }
+
+    public SharedSemaphore(DoorbellParking parking, long offset, long permits) {
+        this.parking = Objects.requireNonNull(parking);
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits");
+        }
+
+        this.offset = offset;
+        this.permits = permits;
+        this.used = offset + CACHE_LINE;
+        this.waiters = new WaiterTable(parking, offset + 2 * CACHE_LINE);
+
+        NativeMemory memory = parking.getMemory().getMemory();
+        SharedRegion.checkRegion(memory, offset, size());
+        SharedRegion.attach(memory, offset, MAGIC, permits);
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    public boolean tryAcquire(long amount) {
+        checkAmount(amount);
+        NativeMemory memory = parking.getMemory().getMemory();
+        while (true) {
+            long current = memory.readLong(used);
+            if (current + amount > permits) {
+                return false;
+            }
+
+            if (memory.compareAndSet(used, current, current + amount)) {
+                return true;
+            }
+        }
+    }
+
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    public void acquire(long amount) throws InterruptedException {
+        tryAcquire(amount, Long.MAX_VALUE);
+    }
+
+    /**
+     * returns false if the permits could not be acquired before the timeout elapsed.
+     */
+    public boolean tryAcquire(long amount, long timeout, TimeUnit unit) throws InterruptedException {
+        return tryAcquire(amount, unit.toNanos(timeout));
+    }
+
+    private boolean tryAcquire(final long amount, long timeoutNanos) throws InterruptedException {
+        checkAmount(amount);
+        return waiters.await(new WaiterTable.WaitCondition() {
+            @Override
+            public boolean isSatisfied() {
+                return tryAcquire(amount);
+            }
+        }, timeoutNanos);
+    }
+
+    public void release() {
+        release(1);
+    }
+
+    public void release(long amount) {
+        checkAmount(amount);
+        parking.getMemory().getMemory().getAndAdd(used, -amount);
+        waiters.wakeAll();
+    }
+
+    private void checkAmount(long amount) {
+        if (amount <= 0 || amount > permits) {
+            throw new IllegalArgumentException("amount");
+        }
+    }
+
+    public long availablePermits() {
+        return permits - parking.getMemory().getMemory().readLong(used);
+    }
+
+    public long getPermits() {
+        return permits;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
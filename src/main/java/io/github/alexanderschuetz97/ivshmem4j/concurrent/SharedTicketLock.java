@@ -0,0 +1,132 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Fair ticket lock inside a shared memory. Each ticket waits on its own grant slot, a cache line that is selected by the
+ * ticket number modulo the amount of slots, so releasing the lock only touches the cache line of the next waiter.
+ * The lock hand off cost stays constant as long as there are not more waiters than slots.
+ * <p>
+ * Layout: a header cache line, a line with the next ticket, a line with the ticket of the owner and one line per slot.
+ * The lock is not reentrant and can be released by any thread or peer.
+ */
+public class SharedTicketLock {
+
+    private static final int MAGIC = 0x5449434B;
+
+    private final IvshmemMemory memory;
+    private final long offset;
+    private final int slots;
+    private final long next;
+    private final long owner;
+    private final long grants;
+
+    public static long size(int slots) {
+        return 3 * CACHE_LINE + slots * CACHE_LINE;
+    }
+
+    /**
+     * @param slots should be at least the maximum amount of threads of all peers that wait at the same time.
+     */
+    public SharedTicketLock(IvshmemMemory memory, long offset, int slots) {
+        this.memory = Objects.requireNonNull(memory);
+        if (slots <= 0) {
+            throw new IllegalArgumentException("slots");
+        }
+
+        this.offset = offset;
+        this.slots = slots;
+        this.next = offset + CACHE_LINE;
+        this.owner = offset + 2 * CACHE_LINE;
+        this.grants = offset + 3 * CACHE_LINE;
+
+        NativeMemory mem = memory.getMemory();
+        SharedRegion.checkRegion(mem, offset, size(slots));
+        SharedRegion.attach(mem, offset, MAGIC, slots);
+    }
+
+    private long grant(long ticket) {
+        return grants + (ticket % slots) * CACHE_LINE;
+    }
+
+    public void lock() {
+        NativeMemory mem = memory.getMemory();
+        long ticket = mem.getAndAdd(next, 1L);
+        long slot = grant(ticket);
+        for (int i = 0; mem.readLong(slot) != ticket; i++) {
+            Backoff.pause(i);
+        }
+
+        mem.write(owner, ticket);
+    }
+
+    /**
+     * Acquires the lock only if it is free and nobody waits for it.
+     */
+    public boolean tryLock() {
+        NativeMemory mem = memory.getMemory();
+        long ticket = mem.readLong(next);
+        if (mem.readLong(grant(ticket)) != ticket || !mem.compareAndSet(next, ticket, ticket + 1)) {
+            return false;
+        }
+
+        mem.write(owner, ticket);
+        return true;
+    }
+
+    /**
+     * Hands the lock to the next ticket. The lock is held if the ticket of the owner was drawn, was granted and its successor
+     * was not granted yet. Otherwise this throws IllegalMonitorStateException, this also covers a lock that was never locked
+     * and the window after a hand off in which the new owner did not write its ticket yet.
+     */
+    public void unlock() {
+        NativeMemory mem = memory.getMemory();
+        long current = mem.readLong(owner);
+        long ticket = current + 1;
+        long slot = grant(ticket);
+        if (mem.readLong(next) <= current || mem.readLong(grant(current)) != current || mem.readLong(slot) == ticket) {
+            throw new IllegalMonitorStateException("not locked");
+        }
+
+        mem.write(slot, ticket);
+    }
+
+    public boolean isLocked() {
+        NativeMemory mem = memory.getMemory();
+        long ticket = mem.readLong(next);
+        return mem.readLong(grant(ticket)) != ticket;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
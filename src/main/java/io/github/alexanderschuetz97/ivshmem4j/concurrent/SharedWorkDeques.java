@@ -0,0 +1,274 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedRegion.CACHE_LINE;
+
+/**
+ * Chase-Lev work stealing deques inside a shared memory, one per participant. The owner pushes and pops tasks at the
+ * bottom of its own deque without compare and set except when it races for the last task, idle participants steal
+ * from the top of the other deques with a compare and set. Tasks are non negative longs, for example the offset of a
+ * task description in the shared memory. The deques have a fixed capacity and push fails when the own deque is full.
+ * <p>
+ * Participants without work park with the DoorbellParking. A push only wakes a parked participant if one is registered
+ * in the sleeper count, so pushing costs no interrupt while all participants are busy.
+ * <p>
+ * Layout: a header cache line, a line with the sleeper count, the waiter table and for each deque a line with the top,
+ * a line with the bottom and the ring buffer.
+ */
+public class SharedWorkDeques {
+
+    private static final int MAGIC = 0x53544541;
+
+    private final DoorbellParking parking;
+    private final long offset;
+    private final int participants;
+    private final int participant;
+    private final int capacity;
+    private final long sleepers;
+    private final WaiterTable waiters;
+    private final long deques;
+    private final long dequeSize;
+    private int victim;
+
+    private final WaiterTable.WaitCondition work = new WaiterTable.WaitCondition() {
+        @Override
+        public boolean isSatisfied() {
+            NativeMemory memory = parking.getMemory().getMemory();
+            for (int i = 0; i < participants; i++) {
+                if (memory.readLong(top(i)) < memory.readLong(bottom(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+
+    public static long size(int participants, int capacity) {
+        return 2 * CACHE_LINE + SharedRegion.align(WaiterTable.SIZE) + participants * dequeSize(capacity);
+    }
+
+    private static long dequeSize(int capacity) {
+        return 2 * CACHE_LINE + SharedRegion.align(capacity * 8L);
+    }
+
+    /**
+     * @param participants the amount of deques. All participants must use the same value.
+     * @param participant the deque owned by this participant. Each participant must use a different one.
+     * @param capacity the maximum amount of tasks per deque, must be a power of two.
+     */
+    public SharedWorkDeques(DoorbellParking parking, long offset, int participants, int participant, int capacity) {
+        this.parking = Objects.requireNonNull(parking);
+        if (participants <= 0) {
+            throw new IllegalArgumentException("participants");
+        }
+
+        if (participant < 0 || participant >= participants) {
+            throw new IllegalArgumentException("participant");
+        }
+
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+
+        this.offset = offset;
+        this.participants = participants;
+        this.participant = participant;
+        this.capacity = capacity;
+        this.sleepers = offset + CACHE_LINE;
+        this.waiters = new WaiterTable(parking, offset + 2 * CACHE_LINE);
+        this.deques = offset + 2 * CACHE_LINE + SharedRegion.align(WaiterTable.SIZE);
+        this.dequeSize = dequeSize(capacity);
+        this.victim = participant;
+
+        NativeMemory memory = parking.getMemory().getMemory();
+        SharedRegion.checkRegion(memory, offset, size(participants, capacity));
+        SharedRegion.attach(memory, offset, MAGIC, participants, capacity);
+    }
+
+    private long top(int deque) {
+        return deques + deque * dequeSize;
+    }
+
+    private long bottom(int deque) {
+        return top(deque) + CACHE_LINE;
+    }
+
+    private long task(int deque, long index) {
+        return top(deque) + 2 * CACHE_LINE + (index & (capacity - 1)) * 8;
+    }
+
+    /**
+     * Pushes a task to the bottom of the own deque. returns false if the deque is full.
+     * Must only be called by threads of the owning participant, one at a time.
+     */
+    public boolean push(long task) {
+        if (task < 0) {
+            throw new IllegalArgumentException("task must not be negative");
+        }
+
+        NativeMemory memory = parking.getMemory().getMemory();
+        long bottom = memory.readLong(bottom(participant));
+        if (bottom - memory.readLong(top(participant)) >= capacity) {
+            return false;
+        }
+
+        memory.write(task(participant, bottom), task);
+        //The exchange orders the publication of the task before the read of the sleeper count.
+        memory.getAndSet(bottom(participant), bottom + 1);
+        if (memory.readLong(sleepers) != 0) {
+            waiters.wake(1);
+        }
+
+        return true;
+    }
+
+    /**
+     * Pops the most recently pushed task of the own deque. returns -1 if it is empty.
+     * Must only be called by threads of the owning participant, one at a time and not concurrently with push.
+     */
+    public long pop() {
+        NativeMemory memory = parking.getMemory().getMemory();
+        long bottomAddress = bottom(participant);
+        long bottom = memory.readLong(bottomAddress) - 1;
+        //The exchange orders the reservation before the read of the top.
+        memory.getAndSet(bottomAddress, bottom);
+        long top = memory.readLong(top(participant));
+        if (top > bottom) {
+            memory.write(bottomAddress, bottom + 1);
+            return -1;
+        }
+
+        long task = memory.readLong(task(participant, bottom));
+        if (top != bottom) {
+            return task;
+        }
+
+        //Last task, race the thieves for it.
+        if (!memory.compareAndSet(top(participant), top, top + 1)) {
+            task = -1;
+        }
+
+        memory.write(bottomAddress, bottom + 1);
+        return task;
+    }
+
+    /**
+     * Steals the oldest task of the deque of the victim. returns -1 if it is empty.
+     */
+    public long steal(int victim) {
+        if (victim < 0 || victim >= participants) {
+            throw new IllegalArgumentException("victim");
+        }
+
+        NativeMemory memory = parking.getMemory().getMemory();
+        while (true) {
+            long top = memory.readLong(top(victim));
+            long bottom = memory.readLong(bottom(victim));
+            if (top >= bottom) {
+                return -1;
+            }
+
+            //The slot may be overwritten by the owner once the top moved, the compare and set fails then.
+            long task = memory.readLong(task(victim, top));
+            if (memory.compareAndSet(top(victim), top, top + 1)) {
+                return task;
+            }
+        }
+    }
+
+    /**
+     * Pops a task of the own deque or steals one from the other deques. returns -1 if all deques are empty.
+     * Must only be called by threads of the owning participant, one at a time and not concurrently with push.
+     */
+    public long poll() {
+        long task = pop();
+        if (task != -1) {
+            return task;
+        }
+
+        for (int i = 1; i < participants; i++) {
+            //Continue with the last victim that had work instead of always stealing from the same participant first.
+            int next = (victim + i) % participants;
+            if (next == participant) {
+                continue;
+            }
+
+            task = steal(next);
+            if (task != -1) {
+                victim = (next + participants - 1) % participants;
+                return task;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Like poll but parks until a task is available or the timeout elapsed. returns -1 on timeout.
+     */
+    public long take(long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        long timeoutNanos = unit.toNanos(timeout);
+        NativeMemory memory = parking.getMemory().getMemory();
+        while (true) {
+            long task = poll();
+            if (task != -1) {
+                return task;
+            }
+
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            memory.getAndAdd(sleepers, 1L);
+            try {
+                if (!waiters.await(work, remaining)) {
+                    return -1;
+                }
+            } finally {
+                memory.getAndAdd(sleepers, -1L);
+            }
+        }
+    }
+
+    /**
+     * returns the approximate amount of tasks in the deque of the participant.
+     */
+    public long size(int deque) {
+        NativeMemory memory = parking.getMemory().getMemory();
+        return Math.max(0, memory.readLong(bottom(deque)) - memory.readLong(top(deque)));
+    }
+
+    public int getParticipant() {
+        return participant;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
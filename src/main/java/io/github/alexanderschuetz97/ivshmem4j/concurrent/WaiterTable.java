@@ -0,0 +1,189 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.concurrent;
+
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+
+import java.util.Collection;
+
+/**
+ * Table of parked waiters inside the region of a shared structure. A peer with parked threads owns one of 64 slots which
+ * holds its peer id and the amount of its parked threads. The slot is found by linear probing starting at peer id modulo 64,
+ * so a waker only interrupts peers that really have parked waiters. If all slots are owned by other peers the waiter is not
+ * registered and only polls.
+ */
+class WaiterTable {
+
+    static final int SLOTS = 64;
+
+    static final long SIZE = SLOTS * 4;
+
+    //A slot is (peer id + 1) << COUNT_BITS | parked threads. ivshmem peer ids have 16 bits so the owner needs 17 bits.
+    private static final int COUNT_BITS = 15;
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+    private static final int MAX_PEER = 0xFFFF;
+
+    /**
+     * The condition a waiter waits for. It must read the shared memory every time it is called.
+     */
+    interface WaitCondition {
+        boolean isSatisfied();
+    }
+
+    private final DoorbellParking parking;
+    private final long offset;
+
+    WaiterTable(DoorbellParking parking, long offset) {
+        this.parking = parking;
+        this.offset = offset;
+    }
+
+    /**
+     * Adds a parked thread to the slot of the peer. returns the address of the slot or -1 if no slot is available.
+     * The compare and set orders the registration before the following reads of the condition.
+     */
+    private long register(NativeMemory memory, int peer) {
+        if (peer < 0 || peer > MAX_PEER) {
+            return -1;
+        }
+
+        int owner = (peer + 1) << COUNT_BITS;
+        for (int i = 0; i < SLOTS; i++) {
+            long slot = offset + ((peer + i) % SLOTS) * 4L;
+            while (true) {
+                int value = memory.readInt(slot);
+                if ((value != 0 && (value & ~COUNT_MASK) != owner) || (value & COUNT_MASK) == COUNT_MASK) {
+                    break;
+                }
+
+                if (memory.compareAndSet(slot, value, value == 0 ? owner | 1 : value + 1)) {
+                    return slot;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Removes a parked thread from the slot, the slot is released when it was the last one of the peer.
+     */
+    private static void deregister(NativeMemory memory, long slot) {
+        while (true) {
+            int value = memory.readInt(slot);
+            if (memory.compareAndSet(slot, value, (value & COUNT_MASK) == 1 ? 0 : value - 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spins and then parks until the condition is satisfied. returns false if the timeout elapsed first.
+     * A timeout of Long.MAX_VALUE waits forever.
+     */
+    boolean await(WaitCondition condition, long timeoutNanos) throws InterruptedException {
+        if (condition.isSatisfied()) {
+            return true;
+        }
+
+        boolean forever = timeoutNanos == Long.MAX_VALUE;
+        long start = System.nanoTime();
+        long spin = Math.min(parking.getSpinNanos(), timeoutNanos);
+        while (System.nanoTime() - start < spin) {
+            if (condition.isSatisfied()) {
+                return true;
+            }
+        }
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        NativeMemory memory = parking.getMemory().getMemory();
+        long slot = register(memory, parking.getOwnPeer());
+
+        try {
+            while (true) {
+                //the registration is ordered before this read so a waker either sees us or we see its update
+                long generation = parking.generation();
+                if (condition.isSatisfied()) {
+                    return true;
+                }
+
+                long remaining = forever ? Long.MAX_VALUE : timeoutNanos - (System.nanoTime() - start);
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                parking.await(generation, Math.min(remaining, parking.getPollNanos()));
+            }
+        } finally {
+            if (slot != -1) {
+                deregister(memory, slot);
+            }
+        }
+    }
+
+    /**
+     * Wakes all parked waiters. Must be called after the shared state was updated with an atomic operation.
+     */
+    void wakeAll() {
+        wake(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Wakes the parked threads of this process and interrupts at most maxPeers other peers that have parked waiters.
+     * Must be called after the shared state was updated with an atomic operation. returns the amount of interrupted peers.
+     */
+    int wake(int maxPeers) {
+        parking.signalLocal();
+        if (parking.getOwnPeer() == -1) {
+            return 0;
+        }
+
+        NativeMemory memory = parking.getMemory().getMemory();
+        Collection<Integer> peers = null;
+        int woken = 0;
+        for (int i = 0; i < SLOTS && woken < maxPeers; i++) {
+            int value = memory.readInt(offset + i * 4L);
+            if (value == 0) {
+                continue;
+            }
+
+            int peer = (value >>> COUNT_BITS) - 1;
+            if (peer == parking.getOwnPeer()) {
+                continue;
+            }
+
+            if (peers == null) {
+                peers = parking.getMemory().getPeers();
+            }
+
+            //A peer that died while parked keeps its slot, it must not be interrupted.
+            if (peers.contains(peer)) {
+                parking.wake(peer);
+                woken++;
+            }
+        }
+
+        return woken;
+    }
+}
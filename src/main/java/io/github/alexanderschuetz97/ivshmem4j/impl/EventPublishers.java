@@ -0,0 +1,148 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.impl;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemPublisher;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemSubscriber;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerConnectionListener;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerEvent;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Publishers for the interrupts and peer events of a shared memory. Every subscription registers its own
+ * InterruptServiceRoutine or PeerConnectionListener that only offers the event to the buffer of the subscription.
+ */
+class EventPublishers {
+
+    private final IvshmemMemory memory;
+    private final Thread.UncaughtExceptionHandler handler;
+    private final Set<EventSubscription<?>> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<EventSubscription<?>, Boolean>());
+    private volatile boolean closed;
+
+    EventPublishers(IvshmemMemory memory, Thread.UncaughtExceptionHandler handler) {
+        this.memory = memory;
+        this.handler = handler;
+    }
+
+    IvshmemPublisher<Integer> interrupts(final int vector, final Executor executor, final int bufferSize) {
+        Objects.requireNonNull(executor);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize");
+        }
+
+        if (!memory.isVectorValid(vector)) {
+            throw new IvshmemException("invalid vector");
+        }
+
+        return new IvshmemPublisher<Integer>() {
+            @Override
+            public void subscribe(IvshmemSubscriber<? super Integer> subscriber) {
+                final InterruptServiceRoutine[] isr = new InterruptServiceRoutine[1];
+                final EventSubscription<Integer> subscription = new EventSubscription<Integer>(subscriber, executor, handler, bufferSize) {
+                    @Override
+                    protected void detach() {
+                        subscriptions.remove(this);
+                        memory.removeInterruptServiceRoutine(vector, isr[0]);
+                    }
+                };
+
+                isr[0] = new InterruptServiceRoutine() {
+                    @Override
+                    public void onInterrupt(int aInterrupt) {
+                        subscription.offer(aInterrupt);
+                    }
+                };
+
+                if (attach(subscription)) {
+                    memory.registerInterruptServiceRoutine(vector, isr[0]);
+                }
+            }
+        };
+    }
+
+    IvshmemPublisher<PeerEvent> peers(final Executor executor, final int bufferSize) {
+        Objects.requireNonNull(executor);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize");
+        }
+
+        return new IvshmemPublisher<PeerEvent>() {
+            @Override
+            public void subscribe(IvshmemSubscriber<? super PeerEvent> subscriber) {
+                final PeerConnectionListener[] listener = new PeerConnectionListener[1];
+                final EventSubscription<PeerEvent> subscription = new EventSubscription<PeerEvent>(subscriber, executor, handler, bufferSize) {
+                    @Override
+                    protected void detach() {
+                        subscriptions.remove(this);
+                        memory.removePeerConnectionListener(listener[0]);
+                    }
+                };
+
+                listener[0] = new PeerConnectionListener() {
+                    @Override
+                    public void onConnect(int peerID, int connectedVectors) {
+                        subscription.offer(new PeerEvent(peerID, true, connectedVectors));
+                    }
+
+                    @Override
+                    public void onDisconnect(int peerID) {
+                        subscription.offer(new PeerEvent(peerID, false, 0));
+                    }
+                };
+
+                if (attach(subscription)) {
+                    memory.registerPeerConnectionListener(listener[0]);
+                }
+            }
+        };
+    }
+
+    private boolean attach(EventSubscription<?> subscription) {
+        subscriptions.add(subscription);
+        //onSubscribe is called by the drain task
+        subscription.schedule();
+        if (closed) {
+            subscriptions.remove(subscription);
+            subscription.fail(new IvshmemException("closed"));
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Completes all subscriptions after their buffered events were delivered.
+     */
+    void close() {
+        closed = true;
+        for (EventSubscription<?> subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.impl;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemSubscriber;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemSubscription;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscription with a bounded buffer. Producers only offer events to the buffer and never block,
+ * the subscriber is called by a drain task on the executor whenever there is demand.
+ */
+abstract class EventSubscription<T> implements IvshmemSubscription, Runnable {
+
+    private final IvshmemSubscriber<? super T> subscriber;
+    private final Executor executor;
+    private final Thread.UncaughtExceptionHandler handler;
+    private final int bufferSize;
+    private final Queue<T> buffer;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger scheduled = new AtomicInteger();
+    private boolean subscribed;
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+    private volatile Throwable failure;
+
+    EventSubscription(IvshmemSubscriber<? super T> subscriber, Executor executor, Thread.UncaughtExceptionHandler handler, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize");
+        }
+        this.subscriber = Objects.requireNonNull(subscriber);
+        this.executor = Objects.requireNonNull(executor);
+        this.handler = Objects.requireNonNull(handler);
+        this.bufferSize = bufferSize;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    /**
+     * Called once the subscription was cancelled or terminated to stop producing events.
+     */
+    protected abstract void detach();
+
+    /**
+     * Called by producers. Fails the subscription if the buffer is full.
+     */
+    void offer(T event) {
+        if (cancelled) {
+            return;
+        }
+
+        if (!buffer.offer(event)) {
+            fail(new IvshmemException("buffer of " + bufferSize + " events overflowed"));
+            return;
+        }
+
+        schedule();
+    }
+
+    /**
+     * Completes the subscription once all buffered events were delivered.
+     */
+    void complete() {
+        completed = true;
+        schedule();
+    }
+
+    void fail(Throwable throwable) {
+        if (failure == null) {
+            failure = throwable;
+        }
+        schedule();
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            fail(new IllegalArgumentException("request " + n));
+            return;
+        }
+
+        long current;
+        long next;
+        do {
+            current = demand.get();
+            next = current + n;
+            if (next < 0) {
+                next = Long.MAX_VALUE;
+            }
+        } while (!demand.compareAndSet(current, next));
+
+        schedule();
+    }
+
+    @Override
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+
+        cancelled = true;
+        detach();
+        buffer.clear();
+    }
+
+    void schedule() {
+        if (scheduled.getAndIncrement() != 0) {
+            return;
+        }
+
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException exc) {
+            cancel();
+            handler.uncaughtException(Thread.currentThread(), exc);
+        }
+    }
+
+    @Override
+    public void run() {
+        int missed = 1;
+        do {
+            try {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                drain();
+            } catch (Throwable exc) {
+                //A subscriber that throws is cancelled.
+                cancel();
+                handler.uncaughtException(Thread.currentThread(), exc);
+            }
+            missed = scheduled.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drain() {
+        while (!cancelled) {
+            Throwable failure = this.failure;
+            if (failure != null) {
+                cancel();
+                subscriber.onError(failure);
+                return;
+            }
+
+            //must be read before polling or an event offered just before completion could be missed.
+            boolean completed = this.completed;
+            if (demand.get() == 0) {
+                if (completed && buffer.isEmpty()) {
+                    cancel();
+                    subscriber.onComplete();
+                }
+                return;
+            }
+
+            T event = buffer.poll();
+            if (event == null) {
+                if (completed) {
+                    cancel();
+                    subscriber.onComplete();
+                }
+                return;
+            }
+
+            if (demand.get() != Long.MAX_VALUE) {
+                demand.decrementAndGet();
+            }
+
+            subscriber.onNext(event);
+        }
+    }
+}
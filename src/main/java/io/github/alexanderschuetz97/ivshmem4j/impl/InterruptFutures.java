@@ -0,0 +1,121 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.impl;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemFuture;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Completes futures for the next interrupt of a vector. One InterruptServiceRoutine per vector is registered on first use
+ * and completes all futures that are waiting for that vector.
+ */
+class InterruptFutures {
+
+    private final IvshmemMemory memory;
+    private final ConcurrentMap<Integer, Queue<IvshmemFuture<Integer>>> waiting = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    InterruptFutures(IvshmemMemory memory) {
+        this.memory = memory;
+    }
+
+    IvshmemFuture<Integer> next(int vector) {
+        if (!memory.isVectorValid(vector)) {
+            throw new IvshmemException("invalid vector");
+        }
+
+        Queue<IvshmemFuture<Integer>> queue = waiting.get(vector);
+        if (queue == null) {
+            Queue<IvshmemFuture<Integer>> created = new ConcurrentLinkedQueue<>();
+            queue = waiting.putIfAbsent(vector, created);
+            if (queue == null) {
+                queue = created;
+                final Queue<IvshmemFuture<Integer>> dispatch = created;
+                memory.registerInterruptServiceRoutine(vector, new InterruptServiceRoutine() {
+                    @Override
+                    public void onInterrupt(int aInterrupt) {
+                        IvshmemFuture<Integer> future;
+                        while ((future = dispatch.poll()) != null) {
+                            future.complete(aInterrupt);
+                        }
+                    }
+                });
+            }
+        }
+
+        final Queue<IvshmemFuture<Integer>> owner = queue;
+        IvshmemFuture<Integer> future = new IvshmemFuture<Integer>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                if (!super.cancel(mayInterruptIfRunning)) {
+                    return false;
+                }
+
+                //Otherwise cancelled futures would pile up on a vector that receives no interrupts.
+                owner.remove(this);
+                return true;
+            }
+        };
+        queue.add(future);
+        if (closed) {
+            future.completeExceptionally(new IvshmemException("closed"));
+        }
+
+        return future;
+    }
+
+    boolean await(int vector, long timeout, TimeUnit unit) throws InterruptedException {
+        IvshmemFuture<Integer> future = next(vector);
+        try {
+            future.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IvshmemException(e.getCause());
+        } finally {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Fails all waiting futures.
+     */
+    void close() {
+        closed = true;
+        for (Queue<IvshmemFuture<Integer>> queue : waiting.values()) {
+            IvshmemFuture<Integer> future;
+            while ((future = queue.poll()) != null) {
+                future.completeExceptionally(new IvshmemException("closed"));
+            }
+        }
+    }
+}
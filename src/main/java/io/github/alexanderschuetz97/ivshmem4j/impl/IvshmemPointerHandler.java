@@ -30,12 +30,25 @@ public class IvshmemPointerHandler implements PointerHandler {
 
     private final IvshmemMemory shmem;
 
+    private volatile boolean detached;
+
     public IvshmemPointerHandler(IvshmemMemory shmem) {
         this.shmem = Objects.requireNonNull(shmem);
     }
 
+    /**
+     * Closing the pointer will no longer close the shared memory after this call. Used when a mapping is replaced.
+     */
+    public void detach() {
+        detached = true;
+    }
+
     @Override
     public void handleClose(long ptr, long size, boolean read, boolean write) {
+        if (detached) {
+            return;
+        }
+
         shmem.close();
     }
 
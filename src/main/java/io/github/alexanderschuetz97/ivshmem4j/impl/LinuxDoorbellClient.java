@@ -22,8 +22,15 @@ package io.github.alexanderschuetz97.ivshmem4j.impl;
 
 import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
 import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemFuture;
 import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemPublisher;
+import io.github.alexanderschuetz97.ivshmem4j.api.LinuxIvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.MappingOptions;
+import io.github.alexanderschuetz97.ivshmem4j.api.MemoryAdvice;
+import io.github.alexanderschuetz97.ivshmem4j.api.NumaPlacement;
 import io.github.alexanderschuetz97.ivshmem4j.api.PeerConnectionListener;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerEvent;
 import io.github.alexanderschuetz97.nativeutils.api.LinuxConst;
 import io.github.alexanderschuetz97.nativeutils.api.LinuxNativeUtil;
 import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
@@ -50,9 +57,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class LinuxDoorbellClient implements IvshmemMemory {
+public class LinuxDoorbellClient implements LinuxIvshmemMemory {
 
     private static final byte[] INTERRUPT_PACKET = new byte[]{1, 0, 0, 0, 0, 0, 0, 0};
 
@@ -71,6 +79,9 @@ public class LinuxDoorbellClient implements IvshmemMemory {
     private Collection<InterruptServiceRoutine>[] isrs;
     private final Collection<Integer> readOnlyOtherPeers = Collections.unmodifiableCollection(otherVectors.keySet());
     private final Thread.UncaughtExceptionHandler handler;
+    private final InterruptFutures interruptFutures = new InterruptFutures(this);
+    private final EventPublishers eventPublishers;
+    private final boolean readOnly;
 
 
     private static final long MAGIC_NUMBER = littleEndian(new byte[]{-1, -1, -1, -1, -1, -1, -1, -1,});
@@ -151,7 +162,13 @@ public class LinuxDoorbellClient implements IvshmemMemory {
     private Msghdr initalPacket;
 
     public LinuxDoorbellClient(String path, long grace, Executor executor, Thread.UncaughtExceptionHandler handler) {
+        this(path, grace, new MappingOptions(), executor, handler);
+    }
+
+    public LinuxDoorbellClient(String path, long grace, MappingOptions options, Executor executor, Thread.UncaughtExceptionHandler handler) {
         Objects.requireNonNull(path);
+        Objects.requireNonNull(options);
+        this.readOnly = options.isReadOnly();
         Objects.requireNonNull(executor);
         Objects.requireNonNull(handler);
         if (grace < 0) {
@@ -159,6 +176,7 @@ public class LinuxDoorbellClient implements IvshmemMemory {
         }
 
         this.handler = handler;
+        this.eventPublishers = new EventPublishers(this, handler);
 
         boolean succ = false;
 
@@ -209,11 +227,13 @@ public class LinuxDoorbellClient implements IvshmemMemory {
             Stat stat = nativeUtil.fstat(memFD);
             memSize = stat.getSize();
 
-            long ptr = nativeUtil.mmap(memFD, memSize, LinuxConst.MAP_SHARED, true, true, 0);
-            memory = nativeUtil.pointer(ptr, memSize, new IvshmemPointerHandler(this));
+            memPtr = nativeUtil.mmap(memFD, memSize, LinuxMappingSupport.mmapFlags(options), true, !options.isReadOnly(), 0);
+            memory = LinuxMappingSupport.pointer(nativeUtil, memPtr, memSize, options, new IvshmemPointerHandler(this));
             this.readLock = memory.readLock();
             this.writeLock = memory.writeLock();
 
+            LinuxMappingSupport.preFault(memory, options, executor);
+
             List<Integer> ownInterrupts = new ArrayList<>();
             boolean gotOwnVectors = false;
             //PEER FDS
@@ -381,6 +401,33 @@ public class LinuxDoorbellClient implements IvshmemMemory {
         }
     }
 
+    @Override
+    public NumaPlacement getNumaPlacement() {
+        readLock.lock();
+        try {
+            checkClosed();
+            return LinuxMappingSupport.numaPlacement(memPtr);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void advise(long offset, long length, MemoryAdvice advice) {
+        readLock.lock();
+        try {
+            checkClosed();
+            LinuxMappingSupport.advise(memory, offset, length, advice);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     @Override
     public void close() {
         if (closed) {
@@ -389,6 +436,8 @@ public class LinuxDoorbellClient implements IvshmemMemory {
 
         //MUST set here or will starve
         closed = true;
+        interruptFutures.close();
+        eventPublishers.close();
         NativeMemory mem = memory;
         if (mem != null) {
             mem.close();
@@ -533,6 +582,30 @@ public class LinuxDoorbellClient implements IvshmemMemory {
         }
     }
 
+    @Override
+    public IvshmemFuture<Integer> nextInterrupt(int vector) {
+        checkClosed();
+        return interruptFutures.next(vector);
+    }
+
+    @Override
+    public boolean awaitInterrupt(int vector, long timeout, TimeUnit unit) throws InterruptedException {
+        checkClosed();
+        return interruptFutures.await(vector, timeout, unit);
+    }
+
+    @Override
+    public IvshmemPublisher<Integer> interruptPublisher(int vector, Executor executor, int bufferSize) {
+        checkClosed();
+        return eventPublishers.interrupts(vector, executor, bufferSize);
+    }
+
+    @Override
+    public IvshmemPublisher<PeerEvent> peerPublisher(Executor executor, int bufferSize) {
+        checkClosed();
+        return eventPublishers.peers(executor, bufferSize);
+    }
+
     @Override
     public void registerInterruptServiceRoutine(int aVector, InterruptServiceRoutine isr) {
         if (aVector < 0 || aVector > isrs.length) {
@@ -607,14 +680,18 @@ public class LinuxDoorbellClient implements IvshmemMemory {
                 }
 
                 for (int i = 0; i < toIntIdx; i++) {
-                    Collection<InterruptServiceRoutine> isrs = this.isrs[i];
-                    synchronized (isrs) {
-                        for (InterruptServiceRoutine isr : isrs) {
-                            try {
-                                isr.onInterrupt(i);
-                            } catch (Throwable e) {
-                                handleUncaught(e);
-                            }
+                    int vector = toInt[i];
+                    InterruptServiceRoutine[] routines;
+                    synchronized (isrs[vector]) {
+                        routines = isrs[vector].toArray(new InterruptServiceRoutine[0]);
+                    }
+
+                    //routines are called without holding a monitor so they may block or remove themselves
+                    for (InterruptServiceRoutine isr : routines) {
+                        try {
+                            isr.onInterrupt(vector);
+                        } catch (Throwable e) {
+                            handleUncaught(e);
                         }
                     }
                 }
@@ -699,10 +776,8 @@ public class LinuxDoorbellClient implements IvshmemMemory {
                 }
             }
 
-            synchronized (peerConnectionListeners) {
-                for (PeerConnectionListener pcl : peerConnectionListeners) {
-                    pcl.onDisconnect(mPeer);
-                }
+            for (PeerConnectionListener pcl : peerConnectionListeners()) {
+                pcl.onDisconnect(mPeer);
             }
 
             return;
@@ -714,10 +789,8 @@ public class LinuxDoorbellClient implements IvshmemMemory {
             vecs.add(fd);
             otherVectors.put(mPeer, vecs);
 
-            synchronized (peerConnectionListeners) {
-                for (PeerConnectionListener pcl : peerConnectionListeners) {
-                    pcl.onConnect(mPeer, 1);
-                }
+            for (PeerConnectionListener pcl : peerConnectionListeners()) {
+                pcl.onConnect(mPeer, 1);
             }
 
             return;
@@ -729,10 +802,8 @@ public class LinuxDoorbellClient implements IvshmemMemory {
             throw new IvshmemException("too many interrupts for peer " + mPeer);
         }
 
-        synchronized (peerConnectionListeners) {
-            for (PeerConnectionListener pcl : peerConnectionListeners) {
-                pcl.onConnect(mPeer, vSize);
-            }
+        for (PeerConnectionListener pcl : peerConnectionListeners()) {
+            pcl.onConnect(mPeer, vSize);
         }
     }
 
@@ -742,6 +813,16 @@ public class LinuxDoorbellClient implements IvshmemMemory {
 
     private final Set<PeerConnectionListener> peerConnectionListeners = Collections.synchronizedSet(new LinkedHashSet<PeerConnectionListener>());
 
+    /**
+     * Listeners are called without holding the monitor of the set so they may remove themselves.
+     * Slow listeners still delay the processing of the socket, peerPublisher should be used for those.
+     */
+    private PeerConnectionListener[] peerConnectionListeners() {
+        synchronized (peerConnectionListeners) {
+            return peerConnectionListeners.toArray(new PeerConnectionListener[0]);
+        }
+    }
+
     @Override
     public void registerPeerConnectionListener(PeerConnectionListener listener) {
         checkClosed();
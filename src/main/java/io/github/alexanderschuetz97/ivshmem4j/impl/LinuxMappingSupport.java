@@ -0,0 +1,328 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j.impl;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.MappingOptions;
+import io.github.alexanderschuetz97.ivshmem4j.api.MemoryAdvice;
+import io.github.alexanderschuetz97.ivshmem4j.api.NumaPlacement;
+import io.github.alexanderschuetz97.nativeutils.api.LinuxConst;
+import io.github.alexanderschuetz97.nativeutils.api.LinuxNativeUtil;
+import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
+import io.github.alexanderschuetz97.nativeutils.api.PointerHandler;
+import io.github.alexanderschuetz97.nativeutils.api.exceptions.UnknownNativeErrorException;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies the MappingOptions that are shared by LinuxPlain and LinuxDoorbellClient.
+ */
+class LinuxMappingSupport {
+
+    //LinuxConst does not contain these. The values are from the generic linux mman.h which is used by amd64 and i386,
+    //the only architectures supported by the native library. Other architectures like mips, sparc or alpha use other values.
+    static final int MAP_LOCKED = 0x2000;
+    static final int MAP_POPULATE = 0x8000;
+
+    static final long PAGE_SIZE = 4096;
+
+    private static final int ZERO_CHUNK_SIZE = 1 << 20;
+
+    private static final long MIN_PRE_FAULT_PER_THREAD = 64L << 20;
+
+    private static final String NUMA_MAPS = "/proc/self/numa_maps";
+
+    private LinuxMappingSupport() {
+
+    }
+
+    static int mmapFlags(MappingOptions options) {
+        int flags = LinuxConst.MAP_SHARED;
+        if (options.isPopulate()) {
+            flags |= MAP_POPULATE;
+        }
+
+        if (options.isLock()) {
+            flags |= MAP_LOCKED;
+        }
+
+        return flags;
+    }
+
+    /**
+     * Writes zeros to the file from "from" (inclusive) to "to" (exclusive).
+     */
+    static void preallocate(LinuxNativeUtil nativeUtil, int fd, long from, long to) throws IOException, UnknownNativeErrorException {
+        byte[] zeros = new byte[(int) Math.min(ZERO_CHUNK_SIZE, to - from)];
+        nativeUtil.lseek(fd, from, LinuxNativeUtil.lseek_whence.SEEK_SET);
+        while (from < to) {
+            int written = nativeUtil.write(fd, zeros, 0, (int) Math.min(zeros.length, to - from));
+            if (written <= 0) {
+                throw new IOException("failed to preallocate file");
+            }
+
+            from += written;
+        }
+    }
+
+    /**
+     * Extends the file from fileSize to size by either writing the last byte or writing zeros to the entire range.
+     * The existing content from 0 to fileSize is never written so holes in it are not filled.
+     */
+    static void extend(LinuxNativeUtil nativeUtil, int fd, long fileSize, long size, boolean preallocate) {
+        try {
+            if (preallocate) {
+                preallocate(nativeUtil, fd, fileSize, size);
+            } else {
+                nativeUtil.lseek(fd, size - 1, LinuxNativeUtil.lseek_whence.SEEK_SET);
+                nativeUtil.write(fd, new byte[1], 0, 1);
+            }
+        } catch (IOException e) {
+            throw new IvshmemException(e);
+        } catch (UnknownNativeErrorException e) {
+            throw new IvshmemException(nativeUtil.strerror_r((int) e.getCode()));
+        }
+    }
+
+    /**
+     * Creates the NativeMemory for a mapping, read only mappings must not be written to or the jvm will crash.
+     */
+    static NativeMemory pointer(LinuxNativeUtil nativeUtil, long ptr, long size, MappingOptions options, PointerHandler handler) {
+        if (options.isReadOnly()) {
+            return nativeUtil.pointer(ptr, size, true, false, handler);
+        }
+
+        return nativeUtil.pointer(ptr, size, handler);
+    }
+
+    /**
+     * Touches every page of the memory once if the options require it. Pages of read only mappings are only read.
+     */
+    static void preFault(NativeMemory memory, MappingOptions options, Executor executor) {
+        boolean write = !options.isReadOnly();
+        Executor[] numaExecutors = options.getNumaExecutors();
+        if (numaExecutors == null) {
+            if (options.isPreFault()) {
+                preFault(memory, write, options.getPreFaultThreads(), executor);
+            }
+            return;
+        }
+
+        if (options.isNumaInterleave()) {
+            long stride = numaExecutors.length * PAGE_SIZE;
+            Executor[] executors = new Executor[numaExecutors.length];
+            long[] from = new long[numaExecutors.length];
+            long[] to = new long[numaExecutors.length];
+            long[] strides = new long[numaExecutors.length];
+            for (int i = 0; i < numaExecutors.length; i++) {
+                executors[i] = numaExecutors[i];
+                from[i] = i * PAGE_SIZE;
+                to[i] = memory.size();
+                strides[i] = stride;
+            }
+
+            touch(memory, write, executors, from, to, strides, false);
+            return;
+        }
+
+        //The calling thread may run on any numa node so it must not touch any page itself.
+        int threads = threads(memory.size(), options.getPreFaultThreads());
+        long chunk = chunk(memory.size(), threads);
+        Executor[] executors = new Executor[threads];
+        long[] from = new long[threads];
+        long[] to = new long[threads];
+        long[] strides = new long[threads];
+        for (int i = 0; i < threads; i++) {
+            executors[i] = numaExecutors[0];
+            from[i] = Math.min(memory.size(), i * chunk);
+            to[i] = Math.min(memory.size(), from[i] + chunk);
+            strides[i] = PAGE_SIZE;
+        }
+
+        touch(memory, write, executors, from, to, strides, false);
+    }
+
+    /**
+     * Touches every page of the memory once. Write faults are done with an atomic add of 0 which does not modify the memory
+     * even if another peer writes to it concurrently.
+     */
+    static void preFault(NativeMemory memory, boolean write, int threads, Executor executor) {
+        long size = memory.size();
+        threads = threads(size, threads);
+        if (threads == 1 || executor == null) {
+            touch(memory, 0, size, PAGE_SIZE, write);
+            return;
+        }
+
+        long chunk = chunk(size, threads);
+        Executor[] executors = new Executor[threads];
+        long[] from = new long[threads];
+        long[] to = new long[threads];
+        long[] strides = new long[threads];
+        for (int i = 0; i < threads; i++) {
+            executors[i] = executor;
+            from[i] = Math.min(size, i * chunk);
+            to[i] = Math.min(size, from[i] + chunk);
+            strides[i] = PAGE_SIZE;
+        }
+
+        touch(memory, write, executors, from, to, strides, true);
+    }
+
+    private static int threads(long size, int threads) {
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        return (int) Math.max(1, Math.min(threads, size / MIN_PRE_FAULT_PER_THREAD));
+    }
+
+    private static long chunk(long size, int threads) {
+        long pages = (size + PAGE_SIZE - 1) / PAGE_SIZE;
+        return ((pages + threads - 1) / threads) * PAGE_SIZE;
+    }
+
+    /**
+     * Runs one touch task per executor and waits for all of them. If callerRunsFirst is set then the first task
+     * and all tasks rejected by their executor are run by the calling thread.
+     */
+    private static void touch(final NativeMemory memory, final boolean write, Executor[] executors, long[] from, long[] to, long[] strides, final boolean callerRunsFirst) {
+        int first = callerRunsFirst ? 1 : 0;
+        final CountDownLatch latch = new CountDownLatch(executors.length - first);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int i = first; i < executors.length; i++) {
+            final long tFrom = from[i];
+            final long tTo = to[i];
+            final long tStride = strides[i];
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        touch(memory, tFrom, tTo, tStride, write);
+                    } catch (Throwable exc) {
+                        failure.compareAndSet(null, exc);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            };
+
+            try {
+                executors[i].execute(task);
+            } catch (RejectedExecutionException exc) {
+                if (!callerRunsFirst) {
+                    //Running it here could place the pages on the wrong numa node.
+                    failure.compareAndSet(null, exc);
+                    latch.countDown();
+                    continue;
+                }
+
+                task.run();
+            }
+        }
+
+        if (callerRunsFirst) {
+            touch(memory, from[0], to[0], strides[0], write);
+        }
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IvshmemException("interrupted while pre faulting", e);
+        }
+
+        if (failure.get() != null) {
+            throw new IvshmemException("failed to pre fault", failure.get());
+        }
+    }
+
+    private static void touch(NativeMemory memory, long from, long to, long stride, boolean write) {
+        for (long off = from; off < to; off += stride) {
+            if (write) {
+                memory.getAndAdd(off, (byte) 0);
+            } else {
+                memory.read(off);
+            }
+        }
+    }
+
+    static void advise(NativeMemory memory, long offset, long length, MemoryAdvice advice) {
+        Objects.requireNonNull(advice);
+        if (offset < 0 || length < 0 || offset + length > memory.size() || offset + length < 0) {
+            throw new IllegalArgumentException("offset " + offset + " length " + length + " size " + memory.size());
+        }
+
+        if (advice == MemoryAdvice.WILLNEED) {
+            touch(memory, offset, offset + length, PAGE_SIZE, false);
+        }
+    }
+
+    /**
+     * Parses /proc/self/numa_maps for the mapping that starts at the given address.
+     */
+    static NumaPlacement numaPlacement(long address) {
+        String hexAddress = Long.toHexString(address);
+        try (BufferedReader reader = new BufferedReader(new FileReader(NUMA_MAPS))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.split(" ");
+                if (tokens.length < 2 || !tokens[0].equals(hexAddress)) {
+                    continue;
+                }
+
+                long pageSize = PAGE_SIZE;
+                Map<Integer, Long> pages = new HashMap<>();
+                for (int i = 2; i < tokens.length; i++) {
+                    String token = tokens[i];
+                    int eq = token.indexOf('=');
+                    if (eq == -1) {
+                        continue;
+                    }
+
+                    String key = token.substring(0, eq);
+                    String value = token.substring(eq + 1);
+                    if (key.equals("kernelpagesize_kB")) {
+                        pageSize = Long.parseLong(value) * 1024;
+                    } else if (key.length() > 1 && key.charAt(0) == 'N' && Character.isDigit(key.charAt(1))) {
+                        pages.put(Integer.parseInt(key.substring(1)), Long.parseLong(value));
+                    }
+                }
+
+                return new NumaPlacement(tokens[1], pageSize, pages);
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new IvshmemException("failed to read " + NUMA_MAPS, e);
+        }
+
+        throw new IvshmemException("mapping " + hexAddress + " not found in " + NUMA_MAPS);
+    }
+}
@@ -22,9 +22,17 @@ package io.github.alexanderschuetz97.ivshmem4j.impl;
 
 import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
 import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
-import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemFuture;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemPublisher;
+import io.github.alexanderschuetz97.ivshmem4j.api.MappingOptions;
+import io.github.alexanderschuetz97.ivshmem4j.api.MemoryAdvice;
+import io.github.alexanderschuetz97.ivshmem4j.api.NumaPlacement;
 import io.github.alexanderschuetz97.ivshmem4j.api.PeerConnectionListener;
-import io.github.alexanderschuetz97.nativeutils.api.LinuxConst;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerEvent;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerInfo;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerRegistryOptions;
+import io.github.alexanderschuetz97.ivshmem4j.api.PlainIvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedPeerRegistry;
 import io.github.alexanderschuetz97.nativeutils.api.LinuxNativeUtil;
 import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
 import io.github.alexanderschuetz97.nativeutils.api.NativeUtils;
@@ -36,28 +44,53 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.AccessDeniedException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static io.github.alexanderschuetz97.nativeutils.api.LinuxConst.O_CREAT;
+import static io.github.alexanderschuetz97.nativeutils.api.LinuxConst.O_RDONLY;
 import static io.github.alexanderschuetz97.nativeutils.api.LinuxConst.O_RDWR;
 import static io.github.alexanderschuetz97.nativeutils.api.LinuxConst.S_IRWXG;
 import static io.github.alexanderschuetz97.nativeutils.api.LinuxConst.S_IRWXO;
 import static io.github.alexanderschuetz97.nativeutils.api.LinuxConst.S_IRWXU;
 
-public class LinuxPlain implements IvshmemMemory {
+public class LinuxPlain implements PlainIvshmemMemory {
 
     private final LinuxNativeUtil nativeUtil = NativeUtils.getLinuxUtil();
-    private int memFD;
+    private int memFD = -1;
+    private SharedFD sharedFD;
     private long memPtr;
     private long memSize;
-    private NativeMemory memory;
+    //Replaced by moveWindow, grow and remapIfGrown while other threads call getMemory and getWindowOffset.
+    private volatile long windowOffset;
+    private volatile NativeMemory memory;
+    private IvshmemPointerHandler pointerHandler;
     private ReentrantReadWriteLock.WriteLock writeLock;
+    private final MappingOptions options;
+    private final boolean wholeFile;
+    private long generation;
+    private final Executor executor;
     private final Thread.UncaughtExceptionHandler handler;
+    private final EventPublishers eventPublishers;
+    private final Set<PeerConnectionListener> peerConnectionListeners = Collections.synchronizedSet(new LinkedHashSet<PeerConnectionListener>());
+    private volatile SharedPeerRegistry peerRegistry;
 
     public LinuxPlain(String path, long size, Thread.UncaughtExceptionHandler handler) {
+        this(path, size, new MappingOptions(), null, handler);
+    }
+
+    public LinuxPlain(String path, long size, MappingOptions options, Executor executor, Thread.UncaughtExceptionHandler handler) {
         Objects.requireNonNull(path);
+        this.options = Objects.requireNonNull(options);
+        this.wholeFile = options.getWindowLength() == 0;
+        this.executor = executor;
         this.handler = Objects.requireNonNull(handler);
+        this.eventPublishers = new EventPublishers(this, handler);
         if (size < 0) {
             throw new IllegalArgumentException("size");
         }
@@ -65,9 +98,10 @@ public class LinuxPlain implements IvshmemMemory {
 
         boolean succ = false;
         try {
-            int flag = O_RDWR;
+            int flag = options.isReadOnly() ? O_RDONLY : O_RDWR;
 
             boolean seek = false;
+            long fileSize = 0;
             File pFile = new File(path);
             if (!pFile.exists()) {
                 if (size == 0) {
@@ -85,6 +119,7 @@ public class LinuxPlain implements IvshmemMemory {
 
                     seek = true;
                 } else {
+                    fileSize = l;
                     if (l < size) {
                         seek = true;
                     } else {
@@ -94,6 +129,10 @@ public class LinuxPlain implements IvshmemMemory {
             }
 
 
+            if (seek && options.isReadOnly()) {
+                throw new IvshmemException(pFile.exists() ? path + " is smaller than " + size + " and can not be extended in read only mode" : path + " does not exist");
+            }
+
             try {
                 memFD = nativeUtil.open(path, flag, S_IRWXO | S_IRWXG | S_IRWXU);
             } catch (IOException e) {
@@ -102,26 +141,55 @@ public class LinuxPlain implements IvshmemMemory {
                 throw new IvshmemException(nativeUtil.strerror_r((int) e.getCode()));
             }
 
+            sharedFD = new SharedFD(memFD);
+
             if (seek) {
-                try {
-                    nativeUtil.lseek(memFD, size - 1, LinuxNativeUtil.lseek_whence.SEEK_SET);
-                    nativeUtil.write(memFD, new byte[1], 0, 1);
-                } catch (IOException e) {
-                    throw new IvshmemException(e);
-                } catch (UnknownNativeErrorException e) {
-                    throw new IvshmemException(nativeUtil.strerror_r((int) e.getCode()));
+                extend(fileSize, size);
+            }
+
+            if (wholeFile) {
+                map(0, size, size);
+            } else {
+                map(options.getWindowOffset(), options.getWindowLength(), size);
+            }
+
+            if (options.getGenerationOffset() >= 0) {
+                if (options.getGenerationOffset() + 8 > memory.size()) {
+                    throw new IvshmemException("generation counter at " + options.getGenerationOffset() + " is outside of the memory");
                 }
+
+                generation = memory.readLong(options.getGenerationOffset());
             }
 
-            memSize = size;
-            try {
-                memPtr = nativeUtil.mmap(memFD, size, LinuxConst.MAP_SHARED, true, true, 0);
-            } catch (QuotaExceededException | AccessDeniedException | InvalidFileDescriptorException e) {
-                throw new IvshmemException(e);
+            LinuxMappingSupport.preFault(memory, options, executor);
+
+            succ = true;
+        } finally {
+            if (!succ) {
+                closeInternal();
             }
+        }
+    }
 
-            memory = nativeUtil.pointer(memPtr, size, new IvshmemPointerHandler(this));
-            writeLock = memory.writeLock();
+    private LinuxPlain(LinuxPlain parent, long offset, long size) {
+        this.options = parent.options;
+        this.wholeFile = false;
+        this.executor = parent.executor;
+        this.handler = parent.handler;
+        this.eventPublishers = new EventPublishers(this, handler);
+
+        SharedFD parentFD = parent.sharedFD;
+        if (parentFD == null || !parentFD.acquire()) {
+            throw new IllegalStateException("closed");
+        }
+
+        sharedFD = parentFD;
+        memFD = parentFD.fd;
+
+        boolean succ = false;
+        try {
+            map(offset, size, fileSize());
+            LinuxMappingSupport.preFault(memory, options, executor);
             succ = true;
         } finally {
             if (!succ) {
@@ -130,6 +198,90 @@ public class LinuxPlain implements IvshmemMemory {
         }
     }
 
+    /**
+     * Maps size bytes starting at offset of the file and replaces the current mapping fields.
+     * The previous mapping is not released.
+     */
+    private void map(long offset, long size, long fileSize) {
+        if (offset < 0 || size <= 0 || offset + size > fileSize || offset + size < 0) {
+            throw new IvshmemException("window at " + offset + " with size " + size + " exceeds file size " + fileSize);
+        }
+
+        //mmap requires a page aligned offset
+        long delta = offset % LinuxMappingSupport.PAGE_SIZE;
+        long ptr;
+        try {
+            ptr = nativeUtil.mmap(memFD, size + delta, LinuxMappingSupport.mmapFlags(options), true, !options.isReadOnly(), offset - delta);
+        } catch (QuotaExceededException | AccessDeniedException | InvalidFileDescriptorException e) {
+            throw new IvshmemException(e);
+        }
+
+        IvshmemPointerHandler ph = new IvshmemPointerHandler(this);
+        NativeMemory mem;
+        try {
+            mem = LinuxMappingSupport.pointer(nativeUtil, ptr + delta, size, options, ph);
+        } catch (RuntimeException exc) {
+            unmap(ptr, size + delta);
+            throw exc;
+        }
+
+        memPtr = ptr;
+        memSize = size + delta;
+        windowOffset = offset;
+        memory = mem;
+        pointerHandler = ph;
+        writeLock = mem.writeLock();
+    }
+
+    /**
+     * Replaces the current mapping with a new mapping. The previous NativeMemory is closed.
+     */
+    private void remap(long offset, long size, long fileSize) {
+        NativeMemory oldMemory = memory;
+        IvshmemPointerHandler oldHandler = pointerHandler;
+        ReentrantReadWriteLock.WriteLock oldWriteLock = writeLock;
+        long oldPtr = memPtr;
+        long oldSize = memSize;
+
+        map(offset, size, fileSize);
+
+        oldHandler.detach();
+        oldMemory.close();
+        oldWriteLock.lock();
+        try {
+            unmap(oldPtr, oldSize);
+        } finally {
+            oldWriteLock.unlock();
+        }
+
+        LinuxMappingSupport.preFault(memory, options, executor);
+    }
+
+    /**
+     * Extends the file from fileSize to size.
+     */
+    private void extend(long fileSize, long size) {
+        LinuxMappingSupport.extend(nativeUtil, memFD, fileSize, size, options.isPreallocate());
+    }
+
+    private void unmap(long ptr, long size) {
+        try {
+            nativeUtil.munmap(ptr, size);
+        } catch (UnknownNativeErrorException e) {
+            handleUncaught(e);
+        }
+    }
+
+    private long fileSize() {
+        try {
+            return nativeUtil.fstat(memFD).getSize();
+        } catch (IOException e) {
+            throw new IvshmemException(e);
+        } catch (UnknownNativeErrorException e) {
+            throw new IvshmemException(nativeUtil.strerror_r((int) e.getCode()));
+        }
+    }
+
     @Override
     public NativeMemory getMemory() {
         return Objects.requireNonNull(memory);
@@ -137,27 +289,88 @@ public class LinuxPlain implements IvshmemMemory {
 
     @Override
     public boolean hasOwnPeerID() {
-        return false;
+        SharedPeerRegistry registry = peerRegistry;
+        return registry != null && !registry.isLost();
     }
 
     @Override
     public int getOwnPeerID() {
-        throw new IvshmemException("own peer id is not known");
+        SharedPeerRegistry registry = peerRegistry;
+        if (registry == null) {
+            throw new IvshmemException("own peer id is not known");
+        }
+
+        int peer = registry.getOwnPeer();
+        if (peer == -1) {
+            throw new IvshmemException("slot of the own peer was claimed by another peer");
+        }
+
+        return peer;
     }
 
     @Override
     public boolean knowsOtherPeers() {
-        return false;
+        return peerRegistry != null;
     }
 
     @Override
     public boolean isOtherPeerConnected(int aPeerId) {
-        throw new IvshmemException("other peers are not known");
+        return peerRegistry().isConnected(aPeerId);
     }
 
     @Override
     public Collection<Integer> getPeers() {
-        throw new IvshmemException("other peers are not known");
+        return peerRegistry().getPeers();
+    }
+
+    @Override
+    public synchronized void joinPeerRegistry(PeerRegistryOptions options) {
+        checkClosed();
+        if (peerRegistry != null) {
+            throw new IvshmemException("peer registry already joined");
+        }
+        if (this.options.isReadOnly()) {
+            throw new IvshmemException("memory is read only");
+        }
+        if (executor == null) {
+            throw new IvshmemException("memory was opened without an executor");
+        }
+
+        peerRegistry = new SharedPeerRegistry(this, options, new PeerConnectionListener() {
+            @Override
+            public void onConnect(int peerID, int connectedVectors) {
+                for (PeerConnectionListener pcl : peerConnectionListeners()) {
+                    pcl.onConnect(peerID, connectedVectors);
+                }
+            }
+
+            @Override
+            public void onDisconnect(int peerID) {
+                for (PeerConnectionListener pcl : peerConnectionListeners()) {
+                    pcl.onDisconnect(peerID);
+                }
+            }
+        }, executor, handler);
+    }
+
+    @Override
+    public PeerInfo getPeerInfo(int peer) {
+        return peerRegistry().getInfo(peer);
+    }
+
+    private SharedPeerRegistry peerRegistry() {
+        SharedPeerRegistry registry = peerRegistry;
+        if (registry == null) {
+            throw new IvshmemException("other peers are not known");
+        }
+
+        return registry;
+    }
+
+    private PeerConnectionListener[] peerConnectionListeners() {
+        synchronized (peerConnectionListeners) {
+            return peerConnectionListeners.toArray(new PeerConnectionListener[0]);
+        }
     }
 
     @Override
@@ -180,15 +393,116 @@ public class LinuxPlain implements IvshmemMemory {
         return false;
     }
 
+    @Override
+    public synchronized NumaPlacement getNumaPlacement() {
+        //synchronized so the mapping can not be replaced or unmapped by moveWindow, grow or close while numa_maps is parsed.
+        checkClosed();
+        return LinuxMappingSupport.numaPlacement(memPtr);
+    }
+
+    @Override
+    public void advise(long offset, long length, MemoryAdvice advice) {
+        checkClosed();
+        LinuxMappingSupport.advise(getMemory(), offset, length, advice);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return options.isReadOnly();
+    }
+
+    @Override
+    public long getWindowOffset() {
+        return windowOffset;
+    }
+
+    @Override
+    public synchronized void moveWindow(long offset) {
+        checkClosed();
+        remap(offset, memory.size(), fileSize());
+    }
+
+    @Override
+    public synchronized void grow(long newSize) {
+        checkClosed();
+        if (options.isReadOnly()) {
+            throw new IvshmemException("memory is read only");
+        }
+
+        if (!wholeFile) {
+            throw new IvshmemException("windows can not be grown");
+        }
+
+        if (newSize < memory.size()) {
+            throw new IllegalArgumentException("newSize");
+        }
+
+        long fileSize = fileSize();
+        if (fileSize < newSize) {
+            extend(fileSize, newSize);
+            fileSize = newSize;
+        }
+
+        if (fileSize != memory.size()) {
+            remap(0, fileSize, fileSize);
+        }
+
+        if (options.getGenerationOffset() >= 0) {
+            generation = memory.getAndAdd(options.getGenerationOffset(), 1L) + 1;
+        }
+    }
+
+    @Override
+    public synchronized boolean remapIfGrown() {
+        checkClosed();
+        if (!wholeFile) {
+            return false;
+        }
+
+        if (options.getGenerationOffset() >= 0) {
+            long current = memory.readLong(options.getGenerationOffset());
+            if (current == generation) {
+                return false;
+            }
+
+            generation = current;
+        }
+
+        long fileSize = fileSize();
+        if (fileSize <= memory.size()) {
+            return false;
+        }
+
+        remap(0, fileSize, fileSize);
+        return true;
+    }
+
+    @Override
+    public PlainIvshmemMemory openWindow(long offset, long size) {
+        checkClosed();
+        return new LinuxPlain(this, offset, size);
+    }
+
     private volatile boolean closed = false;
 
+    private void checkClosed() {
+        if (isClosed()) {
+            throw new IllegalStateException("closed");
+        }
+    }
+
     @Override
-    public void close() {
+    public synchronized void close() {
         if (closed) {
             return;
         }
 
         closed = true;
+        eventPublishers.close();
+        if (peerRegistry != null) {
+            peerRegistry.close();
+        }
+
         NativeMemory mem = memory;
         if (mem != null) {
             mem.close();
@@ -212,18 +526,16 @@ public class LinuxPlain implements IvshmemMemory {
         if (memPtr != 0) {
             long pp = memPtr;
             memPtr = 0;
-            try {
-                nativeUtil.munmap(pp, memSize);
-            } catch (UnknownNativeErrorException e) {
-                handleUncaught(e);
-            }
+            unmap(pp, memSize);
         }
 
         if (memFD != -1) {
-            try {
-                nativeUtil.close(memFD);
-            } catch (IOException e) {
-                handleUncaught(e);
+            if (sharedFD == null || sharedFD.release()) {
+                try {
+                    nativeUtil.close(memFD);
+                } catch (IOException e) {
+                    handleUncaught(e);
+                }
             }
             memFD = -1;
         }
@@ -248,6 +560,27 @@ public class LinuxPlain implements IvshmemMemory {
         throw new IvshmemException("interrupts not supported");
     }
 
+    @Override
+    public IvshmemFuture<Integer> nextInterrupt(int vector) {
+        throw new IvshmemException("interrupts not supported");
+    }
+
+    @Override
+    public boolean awaitInterrupt(int vector, long timeout, TimeUnit unit) {
+        throw new IvshmemException("interrupts not supported");
+    }
+
+    @Override
+    public IvshmemPublisher<Integer> interruptPublisher(int vector, Executor executor, int bufferSize) {
+        throw new IvshmemException("interrupts not supported");
+    }
+
+    @Override
+    public IvshmemPublisher<PeerEvent> peerPublisher(Executor executor, int bufferSize) {
+        checkClosed();
+        return eventPublishers.peers(executor, bufferSize);
+    }
+
     @Override
     public void registerInterruptServiceRoutine(int aVector, InterruptServiceRoutine isr) {
         //NOOP
@@ -260,11 +593,42 @@ public class LinuxPlain implements IvshmemMemory {
 
     @Override
     public void registerPeerConnectionListener(PeerConnectionListener listener) {
-        //NOOP
+        checkClosed();
+        peerConnectionListeners.add(Objects.requireNonNull(listener));
     }
 
     @Override
     public void removePeerConnectionListener(PeerConnectionListener listener) {
-        //NOOP
+        peerConnectionListeners.remove(listener);
+    }
+
+    /**
+     * Reference count of the file descriptor that is shared by all windows of the same file.
+     */
+    private static class SharedFD {
+
+        private final int fd;
+
+        private int references = 1;
+
+        SharedFD(int fd) {
+            this.fd = fd;
+        }
+
+        synchronized boolean acquire() {
+            if (references == 0) {
+                return false;
+            }
+
+            references++;
+            return true;
+        }
+
+        /**
+         * returns true if the file descriptor is no longer referenced and must be closed.
+         */
+        synchronized boolean release() {
+            return --references == 0;
+        }
     }
 }
@@ -22,9 +22,15 @@ package io.github.alexanderschuetz97.ivshmem4j.impl;
 
 import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
 import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
-import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemFuture;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemPublisher;
 import io.github.alexanderschuetz97.ivshmem4j.api.PeerConnectionListener;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerEvent;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerInfo;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerRegistryIvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerRegistryOptions;
 import io.github.alexanderschuetz97.ivshmem4j.api.WindowsIvshmemPCIDevice;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedPeerRegistry;
 import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
 import io.github.alexanderschuetz97.nativeutils.api.NativeUtils;
 import io.github.alexanderschuetz97.nativeutils.api.WinConst;
@@ -42,10 +48,12 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class WindowsPCI implements IvshmemMemory {
+public class WindowsPCI implements PeerRegistryIvshmemMemory {
 
     private static final GUID DEVICE_GUID = new GUID("DF576976-569D-4672-95A0-F57E4EA0B210");
 
@@ -83,7 +91,12 @@ public class WindowsPCI implements IvshmemMemory {
     private NativeMemory memory;
     private final ReentrantReadWriteLock.WriteLock writeLock;
     private final ReentrantReadWriteLock.ReadLock readLock;
+    private final Executor executor;
     private final Thread.UncaughtExceptionHandler handler;
+    private final InterruptFutures interruptFutures = new InterruptFutures(this);
+    private final EventPublishers eventPublishers;
+    private final Set<PeerConnectionListener> peerConnectionListeners = Collections.synchronizedSet(new LinkedHashSet<PeerConnectionListener>());
+    private volatile SharedPeerRegistry peerRegistry;
 
     private volatile boolean closed = false;
 
@@ -91,7 +104,9 @@ public class WindowsPCI implements IvshmemMemory {
     public WindowsPCI(WindowsIvshmemPCIDevice device, Executor executor, Thread.UncaughtExceptionHandler handler) {
         Objects.requireNonNull(device);
         Objects.requireNonNull(device.getName());
+        this.executor = Objects.requireNonNull(executor);
         this.handler = Objects.requireNonNull(handler);
+        this.eventPublishers = new EventPublishers(this, handler);
         String path = device.getName();
         boolean succ = false;
         try {
@@ -221,27 +236,86 @@ public class WindowsPCI implements IvshmemMemory {
 
     @Override
     public boolean hasOwnPeerID() {
-        return true;
+        SharedPeerRegistry registry = peerRegistry;
+        return registry == null || !registry.isLost();
     }
 
     @Override
     public int getOwnPeerID() {
-        return ownPeerID;
+        SharedPeerRegistry registry = peerRegistry;
+        if (registry == null) {
+            return ownPeerID;
+        }
+
+        int peer = registry.getOwnPeer();
+        if (peer == -1) {
+            throw new IvshmemException("slot of the own peer was claimed by another peer");
+        }
+
+        return peer;
     }
 
     @Override
     public boolean knowsOtherPeers() {
-        return false;
+        return peerRegistry != null;
     }
 
     @Override
     public boolean isOtherPeerConnected(int aPeerId) {
-        throw new IvshmemException("other peers are not known");
+        return peerRegistry().isConnected(aPeerId);
     }
 
     @Override
     public Collection<Integer> getPeers() {
-        throw new IvshmemException("other peers are not known");
+        return peerRegistry().getPeers();
+    }
+
+    @Override
+    public synchronized void joinPeerRegistry(PeerRegistryOptions options) {
+        checkClosed();
+        if (peerRegistry != null) {
+            throw new IvshmemException("peer registry already joined");
+        }
+
+        peerRegistry = new SharedPeerRegistry(this, options, new PeerConnectionListener() {
+            @Override
+            public void onConnect(int peerID, int connectedVectors) {
+                for (PeerConnectionListener pcl : peerConnectionListeners()) {
+                    pcl.onConnect(peerID, connectedVectors);
+                }
+            }
+
+            @Override
+            public void onDisconnect(int peerID) {
+                for (PeerConnectionListener pcl : peerConnectionListeners()) {
+                    pcl.onDisconnect(peerID);
+                }
+            }
+        }, executor, handler);
+
+        if (closed) {
+            peerRegistry.close();
+        }
+    }
+
+    @Override
+    public PeerInfo getPeerInfo(int peer) {
+        return peerRegistry().getInfo(peer);
+    }
+
+    private SharedPeerRegistry peerRegistry() {
+        SharedPeerRegistry registry = peerRegistry;
+        if (registry == null) {
+            throw new IvshmemException("other peers are not known");
+        }
+
+        return registry;
+    }
+
+    private PeerConnectionListener[] peerConnectionListeners() {
+        synchronized (peerConnectionListeners) {
+            return peerConnectionListeners.toArray(new PeerConnectionListener[0]);
+        }
     }
 
     @Override
@@ -288,6 +362,12 @@ public class WindowsPCI implements IvshmemMemory {
         }
 
         closed = true;
+        interruptFutures.close();
+        eventPublishers.close();
+        if (peerRegistry != null) {
+            peerRegistry.close();
+        }
+
         NativeMemory mem = memory;
         if (mem != null) {
             mem.close();
@@ -424,14 +504,18 @@ public class WindowsPCI implements IvshmemMemory {
 
 
                 for (int i = 0; i < toIntIdx; i++) {
-                    Collection<InterruptServiceRoutine> isrs = this.isrs[i];
-                    synchronized (isrs) {
-                        for (InterruptServiceRoutine isr : isrs) {
-                            try {
-                                isr.onInterrupt(i);
-                            } catch (Throwable e) {
-                                handleUncaught(e);
-                            }
+                    int vector = toInt[i];
+                    InterruptServiceRoutine[] routines;
+                    synchronized (isrs[vector]) {
+                        routines = isrs[vector].toArray(new InterruptServiceRoutine[0]);
+                    }
+
+                    //routines are called without holding a monitor so they may block or remove themselves
+                    for (InterruptServiceRoutine isr : routines) {
+                        try {
+                            isr.onInterrupt(vector);
+                        } catch (Throwable e) {
+                            handleUncaught(e);
                         }
                     }
                 }
@@ -445,6 +529,30 @@ public class WindowsPCI implements IvshmemMemory {
 
     }
 
+    @Override
+    public IvshmemFuture<Integer> nextInterrupt(int vector) {
+        checkClosed();
+        return interruptFutures.next(vector);
+    }
+
+    @Override
+    public boolean awaitInterrupt(int vector, long timeout, TimeUnit unit) throws InterruptedException {
+        checkClosed();
+        return interruptFutures.await(vector, timeout, unit);
+    }
+
+    @Override
+    public IvshmemPublisher<Integer> interruptPublisher(int vector, Executor executor, int bufferSize) {
+        checkClosed();
+        return eventPublishers.interrupts(vector, executor, bufferSize);
+    }
+
+    @Override
+    public IvshmemPublisher<PeerEvent> peerPublisher(Executor executor, int bufferSize) {
+        checkClosed();
+        return eventPublishers.peers(executor, bufferSize);
+    }
+
     @Override
     public void registerInterruptServiceRoutine(int aVector, InterruptServiceRoutine isr) {
         if (aVector < 0 || aVector > isrs.length) {
@@ -465,11 +573,12 @@ public class WindowsPCI implements IvshmemMemory {
 
     @Override
     public void registerPeerConnectionListener(PeerConnectionListener listener) {
-        //NOOP
+        checkClosed();
+        peerConnectionListeners.add(Objects.requireNonNull(listener));
     }
 
     @Override
     public void removePeerConnectionListener(PeerConnectionListener listener) {
-        //NOOP
+        peerConnectionListeners.remove(listener);
     }
 }
@@ -20,8 +20,15 @@
 
 package io.github.alexanderschuetz97.ivshmem4j;
 
+import io.github.alexanderschuetz97.ivshmem4j.api.IoVector;
 import io.github.alexanderschuetz97.ivshmem4j.api.Ivshmem;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
 import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.MappingOptions;
+import io.github.alexanderschuetz97.ivshmem4j.api.MemoryAccess;
+import io.github.alexanderschuetz97.ivshmem4j.api.MemoryAdvice;
+import io.github.alexanderschuetz97.ivshmem4j.api.MemoryScan;
+import io.github.alexanderschuetz97.ivshmem4j.api.PlainIvshmemMemory;
 import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
 import org.junit.After;
 import org.junit.Assert;
@@ -29,6 +36,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -44,7 +53,7 @@ public class BasicSharedMemoryTest {
 
     private File shmemfile;
 
-    private IvshmemMemory shmemory;
+    private PlainIvshmemMemory shmemory;
 
     private NativeMemory memory;
 
@@ -1074,5 +1083,306 @@ public class BasicSharedMemoryTest {
         }
     }
 
+    @Test
+    public void testMappingOptions() throws Throwable {
+        memory.write(8, 0x1234567890L);
+        MappingOptions options = new MappingOptions().setPreallocate(true).setPopulate(true).setPreFault(true).setPreFaultThreads(2);
+        IvshmemMemory grown = Ivshmem.plain(shmemfile.getAbsolutePath(), 3 * 4096, options);
+        try {
+            //The existing content is kept and the range the file grew by is zero
+            Assert.assertEquals(3 * 4096, grown.getMemory().size());
+            Assert.assertEquals(3 * 4096, shmemfile.length());
+            Assert.assertEquals(0x1234567890L, grown.getMemory().readLong(8));
+            Assert.assertEquals(0L, grown.getMemory().readLong(3 * 4096 - 8));
+        } finally {
+            grown.close();
+        }
+
+        try {
+            new MappingOptions().setPreFaultThreads(-1);
+            Assert.fail();
+        } catch (IllegalArgumentException exc) {
+        }
+    }
+
+    @Test
+    public void testNumaOptions() throws Throwable {
+        memory.write(8, 0x1234567890L);
+        PlainIvshmemMemory bound = Ivshmem.plain(shmemfile.getAbsolutePath(), 0, new MappingOptions().setNumaInterleave(executor, executor));
+        try {
+            Assert.assertEquals(0x1234567890L, bound.getMemory().readLong(8));
+        } finally {
+            bound.close();
+        }
+
+        //preallocate and populate touch the pages from the calling thread before the numa executors could
+        try {
+            new MappingOptions().setPreallocate(true).setNumaBind(executor);
+            Assert.fail();
+        } catch (IllegalArgumentException exc) {
+        }
+
+        try {
+            new MappingOptions().setNumaInterleave(executor).setPopulate(true);
+            Assert.fail();
+        } catch (IllegalArgumentException exc) {
+        }
+
+        new MappingOptions().setNumaBind(executor).clearNuma().setPopulate(true);
+
+        try {
+            bound.getNumaPlacement();
+            Assert.fail();
+        } catch (IllegalStateException exc) {
+        }
+    }
+
+    @Test
+    public void testAdvise() throws Throwable {
+        memory.set(0, (byte) 5, memory.size());
+        shmemory.advise(0, memory.size(), MemoryAdvice.NORMAL);
+        shmemory.advise(0, memory.size(), MemoryAdvice.WILLNEED);
+        Assert.assertEquals((byte) 5, memory.read(0));
+        Assert.assertEquals((byte) 5, memory.read(memory.size() - 1));
+
+        try {
+            shmemory.advise(1, memory.size(), MemoryAdvice.WILLNEED);
+            Assert.fail();
+        } catch (IllegalArgumentException exc) {
+        }
+
+        try {
+            shmemory.advise(-1, 1, MemoryAdvice.NORMAL);
+            Assert.fail();
+        } catch (IllegalArgumentException exc) {
+        }
+    }
+
+    @Test
+    public void testWindow() throws Throwable {
+        PlainIvshmemMemory window = shmemory.openWindow(100, 200);
+        try {
+            NativeMemory windowMemory = window.getMemory();
+            Assert.assertEquals(200, windowMemory.size());
+            Assert.assertEquals(100, window.getWindowOffset());
+
+            windowMemory.write(0, 0x12345678);
+            Assert.assertEquals(0x12345678, memory.readInt(100));
+            memory.write(299, (byte) 7);
+            Assert.assertEquals((byte) 7, windowMemory.read(199));
+
+            window.moveWindow(memory.size() - 200);
+            Assert.assertFalse(windowMemory.isValid());
+            windowMemory = window.getMemory();
+            Assert.assertEquals(memory.size() - 200, window.getWindowOffset());
+            windowMemory.write(199, (byte) 9);
+            Assert.assertEquals((byte) 9, memory.read(memory.size() - 1));
+
+            try {
+                window.moveWindow(memory.size() - 199);
+                Assert.fail();
+            } catch (IvshmemException exc) {
+            }
+
+            //a failed move keeps the previous window
+            Assert.assertEquals((byte) 9, window.getMemory().read(199));
+        } finally {
+            window.close();
+        }
+
+        Assert.assertTrue(window.isClosed());
+        Assert.assertFalse(shmemory.isClosed());
+        memory.write(0, (byte) 1);
+
+        try {
+            shmemory.openWindow(1, memory.size());
+            Assert.fail();
+        } catch (IvshmemException exc) {
+        }
+    }
+
+    @Test
+    public void testReadOnly() throws Throwable {
+        memory.write(8, 0x1234567890L);
+        PlainIvshmemMemory readOnly = Ivshmem.plain(shmemfile.getAbsolutePath(), 0, new MappingOptions().setReadOnly(true).setPreFault(true));
+        try {
+            Assert.assertTrue(readOnly.isReadOnly());
+            Assert.assertFalse(shmemory.isReadOnly());
+            Assert.assertEquals(memory.size(), readOnly.getMemory().size());
+            Assert.assertEquals(0x1234567890L, readOnly.getMemory().readLong(8));
+            memory.write(8, 5L);
+            Assert.assertEquals(5L, readOnly.getMemory().readLong(8));
+        } finally {
+            readOnly.close();
+        }
+
+        try {
+            Ivshmem.plain(shmemfile.getAbsolutePath(), memory.size() * 2, new MappingOptions().setReadOnly(true));
+            Assert.fail();
+        } catch (IvshmemException exc) {
+        }
+
+        Assert.assertEquals(memory.size(), shmemfile.length());
+    }
+
+    @Test
+    public void testGrow() throws Throwable {
+        PlainIvshmemMemory other = Ivshmem.plain(shmemfile.getAbsolutePath(), 0, new MappingOptions().setGenerationOffset(0));
+        try {
+            Assert.assertFalse(other.remapIfGrown());
+            memory.write(16, 77L);
+
+            shmemory.grow(memory.size() * 2);
+            Assert.assertFalse(memory.isValid());
+            memory = shmemory.getMemory();
+            Assert.assertEquals(8192, memory.size());
+            Assert.assertEquals(8192, shmemfile.length());
+            Assert.assertEquals(77L, memory.readLong(16));
+
+            //generation counter was not incremented by shmemory
+            Assert.assertFalse(other.remapIfGrown());
+            Assert.assertEquals(4096, other.getMemory().size());
+
+            other.grow(memory.size() * 2);
+            Assert.assertEquals(1L, other.getMemory().readLong(0));
+            Assert.assertEquals(16384, other.getMemory().size());
+            Assert.assertFalse(other.remapIfGrown());
+
+            Assert.assertTrue(shmemory.remapIfGrown());
+            memory = shmemory.getMemory();
+            Assert.assertEquals(16384, memory.size());
+            Assert.assertEquals(77L, memory.readLong(16));
+
+            try {
+                shmemory.grow(1);
+                Assert.fail();
+            } catch (IllegalArgumentException exc) {
+            }
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testBulkArrays() throws Throwable {
+        long[] longs = new long[100];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = rng.nextLong();
+        }
+
+        MemoryAccess.write(memory, 8, longs);
+        Assert.assertEquals(longs[3], memory.readLong(8 + 3 * 8));
+        long[] longsRead = new long[100];
+        MemoryAccess.read(memory, 8, longsRead);
+        Assert.assertArrayEquals(longs, longsRead);
+
+        double[] doubles = new double[]{1.5, -2.25, Double.MAX_VALUE};
+        MemoryAccess.write(memory, 1024, doubles, 1, 2, ByteOrder.BIG_ENDIAN);
+        byte[] raw = new byte[8];
+        memory.read(1024, raw, 0, 8);
+        Assert.assertEquals(-2.25, ByteBuffer.wrap(raw).getDouble(), 0);
+        double[] doublesRead = new double[3];
+        MemoryAccess.read(memory, 1024, doublesRead, 0, 2, ByteOrder.BIG_ENDIAN);
+        Assert.assertArrayEquals(new double[]{-2.25, Double.MAX_VALUE, 0}, doublesRead, 0);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.putLong(0, 7).putLong(8, 9);
+        MemoryAccess.write(memory, 2048, direct);
+        Assert.assertFalse(direct.hasRemaining());
+        ByteBuffer heap = ByteBuffer.allocate(16);
+        MemoryAccess.read(memory, 2048, heap);
+        heap.flip();
+        Assert.assertEquals(direct.getLong(0), heap.getLong());
+        Assert.assertEquals(direct.getLong(8), heap.getLong());
+
+        try {
+            MemoryAccess.write(memory, memory.size() - 8, new int[3]);
+            Assert.fail();
+        } catch (IllegalArgumentException exc) {
+        }
+    }
+
+    @Test
+    public void testScatterGather() throws Throwable {
+        byte[] header = "head".getBytes();
+        byte[] body = "--body--".getBytes();
+        byte[] trailer = "tail".getBytes();
+        MemoryAccess.writev(memory, Arrays.asList(
+                new IoVector(header, 100),
+                new IoVector(body, 2, 104, 4),
+                new IoVector(trailer, 108),
+                new IoVector(header, 0, 200, 2)));
+
+        byte[] all = new byte[12];
+        memory.read(100, all, 0, 12);
+        Assert.assertEquals("headbodytail", new String(all));
+        Assert.assertEquals((byte) 'h', memory.read(200));
+        Assert.assertEquals((byte) 'e', memory.read(201));
+
+        byte[] first = new byte[4];
+        byte[] second = new byte[6];
+        byte[] third = new byte[2];
+        MemoryAccess.readv(memory, Arrays.asList(
+                new IoVector(first, 100),
+                new IoVector(second, 1, 104, 4),
+                new IoVector(third, 200)));
+        Assert.assertEquals("head", new String(first));
+        Assert.assertEquals("body", new String(second, 1, 4));
+        Assert.assertEquals("he", new String(third));
+
+        try {
+            MemoryAccess.writev(memory, Collections.singletonList(new IoVector(body, memory.size() - 1)));
+            Assert.fail();
+        } catch (IllegalArgumentException exc) {
+        }
+    }
+
+    @Test
+    public void testCopy() throws Throwable {
+        for (int i = 0; i < 256; i++) {
+            memory.write(i, (byte) i);
+        }
+
+        MemoryAccess.copy(memory, 0, 16, 256);
+        for (int i = 0; i < 256; i++) {
+            Assert.assertEquals((byte) i, memory.read(16 + i));
+        }
+
+        MemoryAccess.copy(memory, 16, 0, 256);
+        for (int i = 0; i < 256; i++) {
+            Assert.assertEquals((byte) i, memory.read(i));
+        }
+
+        IvshmemMemory other = Ivshmem.plain(shmemfile.getAbsolutePath() + "_copy", 4096);
+        try {
+            MemoryAccess.copyTo(memory, 0, other.getMemory(), 1000, 256);
+            for (int i = 0; i < 256; i++) {
+                Assert.assertEquals((byte) i, other.getMemory().read(1000 + i));
+            }
+        } finally {
+            other.close();
+            new File(shmemfile.getAbsolutePath() + "_copy").delete();
+        }
+    }
+
+    @Test
+    public void testScan() throws Throwable {
+        memory.write(10, "123456789".getBytes());
+        Assert.assertEquals(0xE3069283, MemoryScan.crc32c(memory, 10, 9));
+        Assert.assertEquals(0xEF46DB3751D8E999L, MemoryScan.hash64(memory, 0, 0));
+        Assert.assertEquals(MemoryScan.hash64(memory, 10, 9), MemoryScan.hash64(memory, 10, 9));
+
+        Assert.assertEquals(-1, MemoryScan.mismatch(memory, 0, memory, 2048, 1024));
+        Assert.assertEquals(0, MemoryScan.compare(memory, 0, memory, 2048, 1024));
+        memory.write(2048 + 500, (byte) 0xff);
+        Assert.assertEquals(500, MemoryScan.mismatch(memory, 0, memory, 2048, 1024));
+        Assert.assertTrue(MemoryScan.compare(memory, 0, memory, 2048, 1024) < 0);
+        Assert.assertTrue(MemoryScan.compare(memory, 2048, memory, 0, 1024) > 0);
+
+        Assert.assertEquals(14, MemoryScan.indexOf(memory, 0, memory.size(), (byte) '5'));
+        Assert.assertEquals(-1, MemoryScan.indexOf(memory, 15, 2048, (byte) '5'));
+        Assert.assertEquals(13, MemoryScan.indexOf(memory, 0, memory.size(), "456".getBytes()));
+        Assert.assertEquals(-1, MemoryScan.indexOf(memory, 0, 15, "456".getBytes()));
+    }
 
 }
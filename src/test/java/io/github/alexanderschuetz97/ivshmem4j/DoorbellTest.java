@@ -22,7 +22,13 @@ package io.github.alexanderschuetz97.ivshmem4j;
 
 import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
 import io.github.alexanderschuetz97.ivshmem4j.api.Ivshmem;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemFuture;
 import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemSubscriber;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemSubscription;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerEvent;
+import io.github.alexanderschuetz97.ivshmem4j.impl.StdErrHandler;
 import io.github.alexanderschuetz97.nativeutils.api.NativeMemory;
 import org.junit.After;
 import org.junit.Assert;
@@ -30,8 +36,20 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DoorbellTest {
 
@@ -87,4 +105,210 @@ public class DoorbellTest {
         sharedMemory2.close();
     }
 
+    @Test
+    public void testDispatchByVector() throws InterruptedException {
+        IvshmemMemory sharedMemory = Ivshmem.doorbell(path, 1000);
+        IvshmemMemory sharedMemory2 = Ivshmem.doorbell(path, 1000);
+
+        final AtomicInteger first = new AtomicInteger(-1);
+        final AtomicInteger second = new AtomicInteger(-1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        sharedMemory.registerInterruptServiceRoutine(1, new InterruptServiceRoutine() {
+            @Override
+            public void onInterrupt(int aInterrupt) {
+                first.set(aInterrupt);
+            }
+        });
+        sharedMemory.registerInterruptServiceRoutine(3, new InterruptServiceRoutine() {
+            @Override
+            public void onInterrupt(int aInterrupt) {
+                second.set(aInterrupt);
+                latch.countDown();
+            }
+        });
+
+        //Only vector 3 fires, its routine must be called with vector 3 and the routine of vector 1 must not be called.
+        sharedMemory2.sendInterrupt(sharedMemory.getOwnPeerID(), 3);
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(3, second.get());
+        Assert.assertEquals(-1, first.get());
+
+        sharedMemory.close();
+        sharedMemory2.close();
+    }
+
+    @Test
+    public void testInterruptFutures() throws Throwable {
+        final IvshmemMemory sharedMemory = Ivshmem.doorbell(path, 1000);
+        final IvshmemMemory sharedMemory2 = Ivshmem.doorbell(path, 1000);
+
+        IvshmemFuture<Integer> cancelled = sharedMemory.nextInterrupt(2);
+        Assert.assertTrue(cancelled.cancel(false));
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertFalse(cancelled.complete(2));
+        try {
+            cancelled.get();
+            Assert.fail();
+        } catch (CancellationException exc) {
+        }
+
+        final CountDownLatch listener = new CountDownLatch(1);
+        IvshmemFuture<Integer> next = sharedMemory.nextInterrupt(2);
+        next.addListener(new Runnable() {
+            @Override
+            public void run() {
+                listener.countDown();
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, StdErrHandler.INSTANCE);
+        try {
+            next.get(20, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (TimeoutException exc) {
+        }
+
+        sharedMemory2.sendInterrupt(sharedMemory.getOwnPeerID(), 2);
+        Assert.assertEquals(2, (int) next.get(1, TimeUnit.SECONDS));
+        Assert.assertTrue(listener.await(1, TimeUnit.SECONDS));
+
+        Assert.assertFalse(sharedMemory.awaitInterrupt(3, 20, TimeUnit.MILLISECONDS));
+        Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sharedMemory2.sendInterrupt(sharedMemory.getOwnPeerID(), 3);
+            }
+        };
+        sender.start();
+        Assert.assertTrue(sharedMemory.awaitInterrupt(3, 1, TimeUnit.SECONDS));
+        sender.join();
+
+        IvshmemFuture<Integer> pending = sharedMemory.nextInterrupt(4);
+        sharedMemory.close();
+        try {
+            pending.get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException exc) {
+            Assert.assertTrue(exc.getCause() instanceof IvshmemException);
+        }
+
+        sharedMemory2.close();
+    }
+
+    @Test
+    public void testPeerPublisherDemandAndClose() throws Throwable {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        IvshmemMemory sharedMemory = Ivshmem.doorbell(path, 1000);
+        try {
+            RecordingSubscriber subscriber = new RecordingSubscriber(1);
+            sharedMemory.peerPublisher(executor, 64).subscribe(subscriber);
+            Assert.assertTrue(subscriber.subscribed.await(1, TimeUnit.SECONDS));
+
+            //Every vector of the new peer is one event, only the first one was requested.
+            IvshmemMemory other = Ivshmem.doorbell(path, 1000);
+            subscriber.awaitEvents(1);
+            Thread.sleep(200);
+            Assert.assertEquals(1, subscriber.events.size());
+
+            //Closing completes the subscription only after the buffered events were requested and delivered.
+            sharedMemory.close();
+            Thread.sleep(100);
+            Assert.assertEquals(1, subscriber.terminated.getCount());
+            subscriber.subscription.request(Long.MAX_VALUE);
+            Assert.assertTrue(subscriber.terminated.await(1, TimeUnit.SECONDS));
+            Assert.assertNull(subscriber.error);
+            Assert.assertEquals(32, subscriber.eventsBeforeComplete);
+            for (int i = 0; i < 32; i++) {
+                PeerEvent event = subscriber.events.get(i);
+                Assert.assertEquals(other.getOwnPeerID(), event.getPeer());
+                Assert.assertTrue(event.isConnected());
+                Assert.assertEquals(i + 1, event.getConnectedVectors());
+            }
+
+            other.close();
+        } finally {
+            sharedMemory.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPeerPublisherOverflow() throws Throwable {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        IvshmemMemory sharedMemory = Ivshmem.doorbell(path, 1000);
+        try {
+            RecordingSubscriber subscriber = new RecordingSubscriber(0);
+            sharedMemory.peerPublisher(executor, 16).subscribe(subscriber);
+            Assert.assertTrue(subscriber.subscribed.await(1, TimeUnit.SECONDS));
+
+            //32 events without demand overflow a buffer of 16 events.
+            IvshmemMemory other = Ivshmem.doorbell(path, 1000);
+            Assert.assertTrue(subscriber.terminated.await(1, TimeUnit.SECONDS));
+            Assert.assertTrue(subscriber.error instanceof IvshmemException);
+            Assert.assertEquals(-1, subscriber.eventsBeforeComplete);
+            Assert.assertTrue(subscriber.events.isEmpty());
+            other.close();
+        } finally {
+            sharedMemory.close();
+            executor.shutdown();
+        }
+    }
+
+    private static class RecordingSubscriber implements IvshmemSubscriber<PeerEvent> {
+
+        private final long initialDemand;
+        private final List<PeerEvent> events = Collections.synchronizedList(new ArrayList<PeerEvent>());
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile IvshmemSubscription subscription;
+        private volatile Throwable error;
+        private volatile int eventsBeforeComplete = -1;
+
+        private RecordingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        private void awaitEvents(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 1000;
+            while (events.size() < count) {
+                Assert.assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+        }
+
+        @Override
+        public void onSubscribe(IvshmemSubscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0) {
+                subscription.request(initialDemand);
+            }
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(PeerEvent item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            eventsBeforeComplete = events.size();
+            terminated.countDown();
+        }
+    }
+
 }
@@ -0,0 +1,589 @@
+//
+// Copyright Alexander Schütz, 2020-2022
+//
+// This file is part of Ivshmem4j.
+//
+// Ivshmem4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Ivshmem4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of Ivshmem4j.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+
+package io.github.alexanderschuetz97.ivshmem4j;
+
+import io.github.alexanderschuetz97.ivshmem4j.api.InterruptServiceRoutine;
+import io.github.alexanderschuetz97.ivshmem4j.api.Ivshmem;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemException;
+import io.github.alexanderschuetz97.ivshmem4j.api.IvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerConnectionListener;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerInfo;
+import io.github.alexanderschuetz97.ivshmem4j.api.PeerRegistryOptions;
+import io.github.alexanderschuetz97.ivshmem4j.api.PlainIvshmemMemory;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.AdaptivePoller;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.DoorbellParking;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.InterruptChannels;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedAllocator;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedBarrier;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedClockCache;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedCountDownLatch;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedCounters;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedEpochReclaimer;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedFutex;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedLeaderElection;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedMcsLock;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedPeerRegistry;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedSemaphore;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedTicketLock;
+import io.github.alexanderschuetz97.ivshmem4j.concurrent.SharedWorkDeques;
+import io.github.alexanderschuetz97.ivshmem4j.impl.StdErrHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SharedStructuresTest {
+
+    private File shmemfile;
+
+    private PlainIvshmemMemory peer0;
+
+    private PlainIvshmemMemory peer1;
+
+    @Before
+    public void before() throws Throwable {
+        shmemfile = new File("/dev/shm/" + getClass().getSimpleName() + Math.abs(new Random().nextInt()));
+        if (shmemfile.exists()) {
+            shmemfile.delete();
+        }
+        shmemfile.deleteOnExit();
+        peer0 = Ivshmem.plain(shmemfile.getAbsolutePath(), 1024 * 1024);
+        peer1 = Ivshmem.plain(shmemfile.getAbsolutePath());
+    }
+
+    @After
+    public void after() {
+        peer0.close();
+        peer1.close();
+        shmemfile.delete();
+    }
+
+    @Test
+    public void testCounters() throws Throwable {
+        SharedCounters counters0 = new SharedCounters(peer0, 0, 16, 4, 0);
+        SharedCounters counters1 = new SharedCounters(peer1, 0, 16, 4, 1);
+
+        int messages = counters0.counter("messages");
+        Assert.assertEquals(messages, counters1.counter("messages"));
+        int bytes = counters1.counter("bytes");
+        Assert.assertNotEquals(messages, bytes);
+        Assert.assertEquals("bytes", counters0.label(bytes));
+        Assert.assertNull(counters0.label(15));
+
+        counters0.increment(messages);
+        counters1.add(messages, 5);
+        counters1.add(bytes, 100);
+        Assert.assertEquals(6, counters0.get(messages));
+        Assert.assertEquals(1, counters0.get(messages, 0));
+        Assert.assertEquals(5, counters0.get(messages, 1));
+
+        Map<String, Long> snapshot = counters0.snapshot();
+        Assert.assertEquals(2, snapshot.size());
+        Assert.assertEquals(100L, (long) snapshot.get("bytes"));
+
+        try {
+            new SharedCounters(peer1, 0, 8, 4, 2);
+            Assert.fail();
+        } catch (IvshmemException exc) {
+        }
+
+        //A participant died after claiming the next entry but before writing its label
+        peer0.getMemory().write(64 + 2 * 64, 1);
+        int stale = counters1.counter("stale");
+        Assert.assertEquals(3, stale);
+        Assert.assertEquals(stale, counters0.counter("stale"));
+        Assert.assertNull(counters0.label(2));
+        Assert.assertEquals(3, counters0.snapshot().size());
+    }
+
+    @Test
+    public void testBarrierLatchAndSemaphore() throws Throwable {
+        final DoorbellParking parking0 = new DoorbellParking(peer0, 0);
+        final DoorbellParking parking1 = new DoorbellParking(peer1, 0);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicInteger inside = new AtomicInteger();
+
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    SharedBarrier barrier = new SharedBarrier(parking1, 0, 2);
+                    SharedSemaphore semaphore = new SharedSemaphore(parking1, 1024, 1);
+                    for (int i = 0; i < 100; i++) {
+                        barrier.await();
+                        semaphore.acquire();
+                        if (inside.incrementAndGet() != 1) {
+                            throw new AssertionError("semaphore");
+                        }
+                        inside.decrementAndGet();
+                        semaphore.release();
+                    }
+                    new SharedCountDownLatch(parking1, 2048, 1).countDown();
+                } catch (Throwable exc) {
+                    failure.set(exc);
+                }
+            }
+        };
+        other.start();
+
+        SharedBarrier barrier = new SharedBarrier(parking0, 0, 2);
+        SharedSemaphore semaphore = new SharedSemaphore(parking0, 1024, 1);
+        for (int i = 0; i < 100; i++) {
+            barrier.await();
+            semaphore.acquire();
+            Assert.assertEquals(1, inside.incrementAndGet());
+            inside.decrementAndGet();
+            semaphore.release();
+        }
+
+        SharedCountDownLatch latch = new SharedCountDownLatch(parking0, 2048, 1);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        other.join();
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(100, barrier.getGeneration());
+        Assert.assertEquals(1, semaphore.availablePermits());
+
+        try {
+            barrier.await(10, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (TimeoutException exc) {
+        }
+        Assert.assertEquals(0, barrier.getNumberWaiting());
+
+        parking0.close();
+        parking1.close();
+    }
+
+    @Test
+    public void testQueueLocks() throws Throwable {
+        final SharedTicketLock ticket0 = new SharedTicketLock(peer0, 0, 4);
+        final SharedTicketLock ticket1 = new SharedTicketLock(peer1, 0, 4);
+
+        //Releasing a lock that was never locked must not grant the lock to the second ticket
+        try {
+            ticket0.unlock();
+            Assert.fail();
+        } catch (IllegalMonitorStateException exc) {
+        }
+        Assert.assertTrue(ticket0.tryLock());
+        Assert.assertFalse(ticket1.tryLock());
+        ticket0.unlock();
+        final SharedMcsLock mcs0 = new SharedMcsLock(peer0, 4096, 2, 0);
+        final SharedMcsLock mcs1 = new SharedMcsLock(peer1, 4096, 2, 1);
+
+        //Locking again from the owning thread must fail instead of queueing the own node behind itself
+        mcs0.lock();
+        try {
+            mcs0.lock();
+            Assert.fail();
+        } catch (IllegalMonitorStateException exc) {
+        }
+        try {
+            mcs0.tryLock();
+            Assert.fail();
+        } catch (IllegalMonitorStateException exc) {
+        }
+        Assert.assertFalse(mcs1.tryLock());
+        mcs0.unlock();
+        Assert.assertFalse(mcs0.isLocked());
+        final long counter = 8192;
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final boolean first = i % 2 == 0;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    SharedTicketLock ticket = first ? ticket0 : ticket1;
+                    SharedMcsLock mcs = first ? mcs0 : mcs1;
+                    IvshmemMemory memory = first ? peer0 : peer1;
+                    for (int j = 0; j < 1000; j++) {
+                        ticket.lock();
+                        memory.getMemory().write(counter, memory.getMemory().readLong(counter) + 1);
+                        ticket.unlock();
+
+                        mcs.lock();
+                        memory.getMemory().write(counter, memory.getMemory().readLong(counter) + 1);
+                        mcs.unlock();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(8000, peer0.getMemory().readLong(counter));
+        Assert.assertFalse(ticket0.isLocked());
+        Assert.assertFalse(mcs0.isLocked());
+
+        Assert.assertTrue(ticket0.tryLock());
+        Assert.assertFalse(ticket1.tryLock());
+        ticket0.unlock();
+        try {
+            ticket1.unlock();
+            Assert.fail();
+        } catch (IllegalMonitorStateException exc) {
+        }
+
+        Assert.assertTrue(mcs1.tryLock());
+        Assert.assertFalse(mcs0.tryLock());
+        mcs1.unlock();
+    }
+
+    @Test
+    public void testFutex() throws Throwable {
+        final SharedFutex futex0 = new SharedFutex(peer0, 0, 16, 0, 4);
+        final SharedFutex futex1 = new SharedFutex(peer1, 0, 16, 0, 4);
+        final long address = 8192;
+
+        Assert.assertFalse(futex0.waitOnAddress(address, 0, 5, TimeUnit.MILLISECONDS));
+
+        Thread waker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                peer1.getMemory().write(address, 1);
+                futex1.wakeAddress(address);
+            }
+        };
+        waker.start();
+
+        Assert.assertTrue(futex0.waitOnAddress(address, 0, 10, TimeUnit.SECONDS));
+        Assert.assertTrue(futex0.waitOnAddress(address, 0L, 10, TimeUnit.SECONDS));
+        waker.join();
+
+        futex0.close();
+        futex1.close();
+    }
+
+    @Test
+    public void testInterruptChannels() throws Throwable {
+        InterruptChannels channels0 = new InterruptChannels(peer0, 0, 2, 4096, 0, 0, StdErrHandler.INSTANCE);
+        InterruptChannels channels1 = new InterruptChannels(peer1, 0, 2, 4096, 0, 1, StdErrHandler.INSTANCE);
+        final List<Integer> received = new ArrayList<>();
+        InterruptServiceRoutine isr = new InterruptServiceRoutine() {
+            @Override
+            public void onInterrupt(int aInterrupt) {
+                received.add(aInterrupt);
+            }
+        };
+        channels0.registerInterruptServiceRoutine(7, isr);
+        channels0.registerInterruptServiceRoutine(4000, isr);
+
+        channels1.send(0, 4000);
+        channels1.send(0, 7);
+        channels1.send(0, 7);
+        channels1.send(0, 100);
+        Assert.assertEquals(0, channels1.poll());
+        Assert.assertEquals(3, channels0.poll());
+        Assert.assertEquals(Arrays.asList(7, 4000), received);
+        Assert.assertEquals(0, channels0.poll());
+
+        channels0.close();
+        channels1.close();
+    }
+
+    @Test
+    public void testAdaptivePoller() throws Throwable {
+        final AtomicInteger work = new AtomicInteger();
+        final AtomicInteger processed = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        AdaptivePoller poller = new AdaptivePoller(peer0, 0, 2, 0, 0, new AdaptivePoller.PollHandler() {
+            @Override
+            public int poll(int budget) {
+                int n = 0;
+                while (n < budget && work.get() > 0) {
+                    work.decrementAndGet();
+                    n++;
+                }
+                processed.addAndGet(n);
+                return n;
+            }
+        }, executor, StdErrHandler.INSTANCE).setBudget(8);
+        AdaptivePoller sender = new AdaptivePoller(peer1, 0, 2, 0, 1, new AdaptivePoller.PollHandler() {
+            @Override
+            public int poll(int budget) {
+                return 0;
+            }
+        }, executor, StdErrHandler.INSTANCE);
+
+        work.addAndGet(1000);
+        //ivshmem-plain has no interrupts so the receiver never arms and keeps polling
+        Assert.assertFalse(sender.signal(0));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (processed.get() < 1000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        Assert.assertEquals(1000, processed.get());
+        Assert.assertFalse(poller.isArmed());
+        poller.close();
+        sender.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPeerRegistry() throws Throwable {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        peer0.registerPeerConnectionListener(new PeerConnectionListener() {
+            @Override
+            public void onConnect(int peerID, int connectedVectors) {
+                events.add("connect " + peerID);
+            }
+
+            @Override
+            public void onDisconnect(int peerID) {
+                events.add("disconnect " + peerID);
+            }
+        });
+
+        Assert.assertFalse(peer0.knowsOtherPeers());
+        peer0.joinPeerRegistry(new PeerRegistryOptions(0, 4).setLeaseMillis(40).setIdentity("first").setCapabilities(3));
+        peer1.joinPeerRegistry(new PeerRegistryOptions(0, 4).setLeaseMillis(40).setIdentity("second"));
+        Assert.assertTrue(peer0.knowsOtherPeers());
+        Assert.assertTrue(peer1.hasOwnPeerID());
+        int id0 = peer0.getOwnPeerID();
+        int id1 = peer1.getOwnPeerID();
+        Assert.assertNotEquals(id0, id1);
+
+        Assert.assertEquals("connect " + id1, events.poll(1, TimeUnit.SECONDS));
+        Assert.assertTrue(peer0.isOtherPeerConnected(id1));
+        Assert.assertEquals(Arrays.asList(id1), new ArrayList<>(peer0.getPeers()));
+        PeerInfo info = peer1.getPeerInfo(id0);
+        Assert.assertEquals("first", info.getIdentity());
+        Assert.assertEquals(3, info.getCapabilities());
+        Assert.assertEquals("second", peer0.getPeerInfo(id1).getIdentity());
+
+        //A peer that never sends a heartbeat is removed once its lease expired.
+        long slot = SharedPeerRegistry.size(3);
+        peer0.getMemory().write(slot, 42L);
+        peer0.getMemory().write(slot + 8, 42L);
+        Assert.assertEquals("connect 3", events.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals("disconnect 3", events.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, peer0.getMemory().readLong(slot));
+
+        peer1.close();
+        Assert.assertEquals("disconnect " + id1, events.poll(1, TimeUnit.SECONDS));
+        Assert.assertTrue(peer0.getPeers().isEmpty());
+    }
+
+    @Test
+    public void testLeaderElection() throws Throwable {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        SharedLeaderElection.LeaderListener listener = new SharedLeaderElection.LeaderListener() {
+            @Override
+            public void onLeaderChange(int leader, long epoch) {
+                events.add(leader + "@" + epoch);
+            }
+        };
+
+        SharedLeaderElection election0 = new SharedLeaderElection(peer0, 0, 0, 40, new SharedLeaderElection.LeaderListener() {
+            @Override
+            public void onLeaderChange(int leader, long epoch) {
+            }
+        }, executor, StdErrHandler.INSTANCE);
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!election0.isLeader() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(election0.isLeader());
+
+        SharedLeaderElection election1 = new SharedLeaderElection(peer1, 0, 1, 40, listener, executor, StdErrHandler.INSTANCE);
+        Assert.assertEquals("0@1", events.poll(1, TimeUnit.SECONDS));
+        Assert.assertFalse(election1.isLeader());
+
+        election0.close();
+        Assert.assertEquals("1@2", events.poll(1, TimeUnit.SECONDS));
+        Assert.assertTrue(election1.isLeader());
+
+        //A leader that stops its heartbeat is replaced once its lease expired.
+        election1.resign();
+        Assert.assertEquals("-1@2", events.poll(1, TimeUnit.SECONDS));
+        //Lease word after the header line: peer 2 in epoch 5.
+        peer0.getMemory().write(64, (5L << 16) | 3);
+        Assert.assertEquals("2@5", events.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals("-1@5", events.poll(1, TimeUnit.SECONDS));
+        election1.campaign();
+        Assert.assertEquals("1@6", events.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals(6, election1.getEpoch());
+        election1.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEpochReclamation() throws Throwable {
+        SharedAllocator allocator0 = new SharedAllocator(peer0, 0, 8192, 1024);
+        SharedAllocator allocator1 = new SharedAllocator(peer1, 0, 8192, 1024);
+        Assert.assertEquals(128, allocator0.blockSize(100));
+
+        List<Long> blocks = new ArrayList<>();
+        long block;
+        while ((block = allocator0.allocate(1024)) != -1) {
+            Assert.assertFalse(blocks.contains(block));
+            blocks.add(block);
+        }
+        Assert.assertEquals(8, blocks.size());
+        allocator1.free(blocks.get(3), 1024);
+        Assert.assertEquals((long) blocks.get(3), allocator1.allocate(1000));
+        for (long b : blocks) {
+            allocator0.free(b, 1024);
+        }
+
+        long reclaimerOffset = SharedAllocator.size(8192, 1024);
+        long reference = reclaimerOffset + SharedEpochReclaimer.size(2);
+        SharedEpochReclaimer reclaimer0 = new SharedEpochReclaimer(peer0, reclaimerOffset, 2, 0, allocator0);
+        SharedEpochReclaimer reclaimer1 = new SharedEpochReclaimer(peer1, reclaimerOffset, 2, 1, allocator1);
+
+        long first = allocator0.allocate(1024);
+        long second = allocator0.allocate(1024);
+        Assert.assertEquals(0, reclaimer0.replace(reference, first, 1024));
+
+        reclaimer1.enter();
+        Assert.assertEquals(first, peer1.getMemory().readLong(reference));
+        Assert.assertEquals(first, reclaimer0.replace(reference, second, 1024));
+        Assert.assertFalse(reclaimer0.synchronize(20, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, reclaimer0.reclaim());
+
+        reclaimer1.exit();
+        Assert.assertTrue(reclaimer0.synchronize(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, reclaimer0.reclaim());
+        Assert.assertEquals(first, allocator1.allocate(1024));
+    }
+
+    @Test
+    public void testWorkStealing() throws Throwable {
+        DoorbellParking parking0 = new DoorbellParking(peer0, 0);
+        DoorbellParking parking1 = new DoorbellParking(peer1, 0);
+        final SharedWorkDeques deques0 = new SharedWorkDeques(parking0, 0, 2, 0, 1024);
+        final SharedWorkDeques deques1 = new SharedWorkDeques(parking1, 0, 2, 1, 1024);
+
+        Assert.assertEquals(-1, deques1.poll());
+        for (int i = 0; i < 1024; i++) {
+            Assert.assertTrue(deques0.push(i));
+        }
+        Assert.assertFalse(deques0.push(1024));
+        Assert.assertEquals(1023, deques0.pop());
+        Assert.assertEquals(0, deques1.steal(0));
+
+        for (int i = 1022; i > 0; i--) {
+            Assert.assertEquals(i, deques0.pop());
+        }
+        Assert.assertEquals(-1, deques0.pop());
+
+        //The owner pops while the thief steals, every task must be taken exactly once.
+        final AtomicIntegerArray taken = new AtomicIntegerArray(100_000);
+        Thread thief = new Thread() {
+            @Override
+            public void run() {
+                long task;
+                try {
+                    while ((task = deques1.take(500, TimeUnit.MILLISECONDS)) != -1) {
+                        taken.incrementAndGet((int) task);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        thief.start();
+
+        for (int i = 0; i < taken.length(); i++) {
+            while (!deques0.push(i)) {
+                //The thief may have emptied the deque in the meantime.
+                long task = deques0.pop();
+                if (task != -1) {
+                    taken.incrementAndGet((int) task);
+                }
+            }
+        }
+
+        long remaining;
+        while ((remaining = deques0.pop()) != -1) {
+            taken.incrementAndGet((int) remaining);
+        }
+
+        thief.join();
+        for (int i = 0; i < taken.length(); i++) {
+            Assert.assertEquals(1, taken.get(i));
+        }
+        parking0.close();
+        parking1.close();
+    }
+
+    @Test
+    public void testClockCache() throws Throwable {
+        SharedAllocator allocator0 = new SharedAllocator(peer0, 0, 4096, 256);
+        SharedAllocator allocator1 = new SharedAllocator(peer1, 0, 4096, 256);
+        long cacheOffset = SharedAllocator.size(4096, 256);
+        SharedClockCache cache0 = new SharedClockCache(peer0, cacheOffset, 1, allocator0);
+        SharedClockCache cache1 = new SharedClockCache(peer1, cacheOffset, 1, allocator1);
+
+        Assert.assertFalse(cache0.put(new byte[200], new byte[57]));
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(cache0.put(("key" + i).getBytes(), ("value" + i).getBytes()));
+        }
+
+        Assert.assertArrayEquals("value3".getBytes(), cache1.get("key3".getBytes()));
+        Assert.assertTrue(cache1.put("key5".getBytes(), "other".getBytes()));
+        Assert.assertArrayEquals("other".getBytes(), cache0.get("key5".getBytes()));
+
+        //The bucket is full, key3 was referenced so the hand skips it.
+        Assert.assertTrue(cache1.put("key8".getBytes(), "value8".getBytes()));
+        Assert.assertArrayEquals("value3".getBytes(), cache0.get("key3".getBytes()));
+        Assert.assertArrayEquals("value8".getBytes(), cache0.get("key8".getBytes()));
+        Assert.assertNull(cache0.get("key0".getBytes()));
+
+        Assert.assertTrue(cache0.remove("key3".getBytes()));
+        Assert.assertFalse(cache1.remove("key3".getBytes()));
+        Assert.assertNull(cache1.get("key3".getBytes()));
+
+        //The only chunk of the arena holds blocks of 64 bytes, evicting them cannot free a block of 128 bytes.
+        Assert.assertFalse(cache0.put("large".getBytes(), new byte[100]));
+        for (String key : Arrays.asList("key1", "key2", "key4", "key5", "key6", "key7", "key8")) {
+            Assert.assertNotNull(cache1.get(key.getBytes()));
+        }
+    }
+}